@@ -44,8 +44,13 @@ public class DatabaseDetails {
     }
 
     public static DatabaseDetails withDatabaseDetails(String migrationUser, String migrationPassword, String adminUser, String adminPassword, String url) {
-        DatabaseUrl databaseUrl = new DatabaseUrl(url);
-        return new DatabaseDetails(databaseUrl.getHost(), databaseUrl.getPort(), databaseUrl.getSchemaName(), migrationUser, migrationPassword, adminUser, adminPassword, url);
+        String workerUrl = WorkerSchemaSuffix.applyTo(url, WorkerSchemaSuffix.current());
+        DatabaseUrl databaseUrl = new DatabaseUrl(workerUrl);
+        return new DatabaseDetails(databaseUrl.getHost(), databaseUrl.getPort(), databaseUrl.getSchemaName(), migrationUser, migrationPassword, adminUser, adminPassword, workerUrl);
+    }
+
+    public DatabaseDetails withSchemaName(String schemaName) {
+        return new DatabaseDetails(host, port, schemaName, migrationUser, migrationPassword, adminUser, adminPassword, new DatabaseUrl(url).withSchemaName(schemaName));
     }
 
     public String getSchemaName() {
@@ -16,6 +16,11 @@
 package com.tyro.oss.dbevolution;
 
 import com.tyro.oss.dbevolution.database.DatabaseCleaner;
+import com.tyro.oss.dbevolution.database.DatabaseCreationStrategy;
+import com.tyro.oss.dbevolution.database.PooledSchema;
+import com.tyro.oss.dbevolution.database.RestoreOptions;
+import com.tyro.oss.dbevolution.database.RollbackDataSource;
+import com.tyro.oss.dbevolution.database.SchemaPool;
 import org.springframework.test.context.TestContext;
 import org.springframework.test.context.support.AbstractTestExecutionListener;
 import org.springframework.transaction.annotation.AnnotationTransactionAttributeSource;
@@ -24,6 +29,7 @@ import org.springframework.transaction.interceptor.TransactionAttribute;
 import org.springframework.transaction.interceptor.TransactionAttributeSource;
 
 import java.lang.reflect.Method;
+import java.sql.SQLException;
 import java.util.EnumSet;
 
 import static java.util.Arrays.stream;
@@ -34,25 +40,68 @@ public class DatabaseMigrationTestExecutionListener extends AbstractTestExecutio
 
     private static final EnumSet<Propagation> PROPAGATION_TYPES_THAT_REQUIRE_DATABASE_CLEANING = complementOf(EnumSet.of(REQUIRED, REQUIRES_NEW, MANDATORY));
     private final DatabaseCleaner databaseCleaner;
+    private final RollbackDataSource rollbackDataSource;
+    private final SchemaPool schemaPool;
+    private PooledSchema pooledSchema;
 
     public DatabaseMigrationTestExecutionListener(DatabaseDetails databaseDetails,
                                                   String snapshotFilename,
                                                   String migrationScriptsFilename) {
-        this.databaseCleaner = new DatabaseCleaner(databaseDetails, snapshotFilename, migrationScriptsFilename);
+        this(databaseDetails, snapshotFilename, migrationScriptsFilename, RestoreOptions.defaultRestoreOptions());
+    }
+
+    public DatabaseMigrationTestExecutionListener(DatabaseDetails databaseDetails,
+                                                  String snapshotFilename,
+                                                  String migrationScriptsFilename,
+                                                  RestoreOptions restoreOptions) {
+        this.databaseCleaner = new DatabaseCleaner(databaseDetails, snapshotFilename, migrationScriptsFilename, restoreOptions);
+        this.rollbackDataSource = null;
+        this.schemaPool = null;
+    }
+
+    public DatabaseMigrationTestExecutionListener(DatabaseDetails databaseDetails,
+                                                  DatabaseCreationStrategy databaseCreationStrategy,
+                                                  String migrationScriptsFilename) {
+        this(databaseDetails, databaseCreationStrategy, migrationScriptsFilename, null);
+    }
+
+    public DatabaseMigrationTestExecutionListener(DatabaseDetails databaseDetails,
+                                                  DatabaseCreationStrategy databaseCreationStrategy,
+                                                  String migrationScriptsFilename,
+                                                  RollbackDataSource rollbackDataSource) {
+        this.databaseCleaner = new DatabaseCleaner(databaseDetails, databaseCreationStrategy, migrationScriptsFilename);
+        this.rollbackDataSource = rollbackDataSource;
+        this.schemaPool = null;
+    }
+
+    public DatabaseMigrationTestExecutionListener(SchemaPool schemaPool) {
+        this.databaseCleaner = null;
+        this.rollbackDataSource = null;
+        this.schemaPool = schemaPool;
     }
 
     @Override
     public void beforeTestClass(TestContext testContext) {
-        databaseCleaner.cleanAndMigrateSchemaAndGenesis();
+        cleanAndMigrateSchemaAndGenesis();
     }
 
     @Override
-    public void beforeTestMethod(TestContext testContext) {
-        databaseCleaner.cleanAndMigrateSchemaAndGenesis();
+    public void beforeTestMethod(TestContext testContext) throws SQLException {
+        cleanAndMigrateSchemaAndGenesis();
+        if (rollbackDataSource != null) {
+            rollbackDataSource.begin();
+        }
     }
 
     @Override
     public void afterTestMethod(TestContext testContext) throws Exception {
+        if (rollbackDataSource != null) {
+            if (!rollbackDataSource.rollback()) {
+                markDatabaseAsNeedingToBeReloaded();
+            }
+            return;
+        }
+
         TransactionAttributeSource attributeSource = new AnnotationTransactionAttributeSource();
 
         Class<?> testClass;
@@ -76,9 +125,38 @@ public class DatabaseMigrationTestExecutionListener extends AbstractTestExecutio
         markDatabaseAsNeedingToBeReloadedIfRequired(transactionAttribute);
     }
 
+    @Override
+    public void afterTestClass(TestContext testContext) {
+        if (pooledSchema != null) {
+            pooledSchema.close();
+            pooledSchema = null;
+        }
+    }
+
     private void markDatabaseAsNeedingToBeReloadedIfRequired(TransactionAttribute transactionAttribute) {
         if (transactionAttribute == null || PROPAGATION_TYPES_THAT_REQUIRE_DATABASE_CLEANING.contains(convert(transactionAttribute.getPropagationBehavior()))) {
+            markDatabaseAsNeedingToBeReloaded();
+        }
+    }
+
+    private void cleanAndMigrateSchemaAndGenesis() {
+        if (schemaPool == null) {
+            databaseCleaner.cleanAndMigrateSchemaAndGenesis();
+        } else if (pooledSchema == null) {
+            try {
+                pooledSchema = schemaPool.lease();
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to lease a pooled schema", e);
+            }
+        }
+    }
+
+    private void markDatabaseAsNeedingToBeReloaded() {
+        if (schemaPool == null) {
             databaseCleaner.markDatabaseAsNeedingToBeReloaded();
+        } else if (pooledSchema != null) {
+            pooledSchema.close();
+            pooledSchema = null;
         }
     }
 
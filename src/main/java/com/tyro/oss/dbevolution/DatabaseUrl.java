@@ -23,9 +23,13 @@ import static org.apache.commons.lang3.StringUtils.substringAfter;
 
 public class DatabaseUrl {
 
+    private static final Pattern SCHEMA_IN_URL = Pattern.compile("^(jdbc:(?:[\\w.]+:)+//[^/?;]*/)([^?;]*)(.*)$");
+
+    private final String url;
     private final URI uri;
 
     public DatabaseUrl(String url) {
+        this.url = url;
         uri = parseJdbcUrl(url);
     }
 
@@ -41,6 +45,25 @@ public class DatabaseUrl {
         return uri.getHost();
     }
 
+    public boolean isTestcontainers() {
+        return url.startsWith("jdbc:tc:");
+    }
+
+    public String withSchemaName(String schemaName) {
+        Matcher matcher = SCHEMA_IN_URL.matcher(url);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Unable to find schema name in jdbc url: " + url);
+        }
+        return matcher.group(1) + schemaName + matcher.group(3);
+    }
+
+    public String withParameter(String name, String value) {
+        if (url.contains("?" + name + "=") || url.contains("&" + name + "=")) {
+            return url;
+        }
+        return url + (url.contains("?") ? "&" : "?") + name + "=" + value;
+    }
+
     private URI parseJdbcUrl(String url) {
         Matcher matcher = Pattern.compile("jdbc:\\w+:(.+)").matcher(url);
         if (matcher.find()) {
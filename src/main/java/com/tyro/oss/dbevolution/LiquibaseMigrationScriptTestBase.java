@@ -17,6 +17,10 @@ package com.tyro.oss.dbevolution;
 
 import com.tyro.oss.dbevolution.database.DatabaseHelper;
 import com.tyro.oss.dbevolution.database.DatabaseHelperFactory;
+import com.tyro.oss.dbevolution.database.EmbeddedServerPool;
+import com.tyro.oss.dbevolution.database.PooledSchema;
+import com.tyro.oss.dbevolution.database.PooledServer;
+import com.tyro.oss.dbevolution.database.SchemaPool;
 import liquibase.Liquibase;
 import liquibase.database.jvm.JdbcConnection;
 import liquibase.exception.LiquibaseException;
@@ -33,6 +37,8 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
 import static java.lang.String.format;
@@ -45,24 +51,23 @@ import static org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 public abstract class LiquibaseMigrationScriptTestBase {
 
+    private static final Map<String, SchemaPool> SCHEMA_POOLS = new ConcurrentHashMap<>();
+
     protected String migrationScriptFilename;
     protected Resource schemaSnapshot;
     protected DatabaseHelper databaseHelper;
+    private PooledServer pooledServer;
+    private PooledSchema pooledSchema;
 
     @BeforeAll
     protected void setUpConverterForBitColumns() {
         ConvertUtilsBean convertUtils = BeanUtilsBean.getInstance().getConvertUtils();
-        Converter originalBooleanConverter = convertUtils.lookup(Boolean.class);
-        convertUtils.register((type, value) -> {
-            if (Boolean.class.equals(type)) {
-                if ("b'1'".equals(value)) {
-                    return Boolean.TRUE;
-                } else if ("b'0'".equals(value)) {
-                    return Boolean.FALSE;
-                }
+        synchronized (convertUtils) {
+            Converter originalBooleanConverter = convertUtils.lookup(Boolean.class);
+            if (!(originalBooleanConverter instanceof BitColumnConverter)) {
+                convertUtils.register(new BitColumnConverter(originalBooleanConverter), Boolean.class);
             }
-            return originalBooleanConverter.convert(type, value);
-        }, Boolean.class);
+        }
     }
 
     @BeforeAll
@@ -77,14 +82,43 @@ public abstract class LiquibaseMigrationScriptTestBase {
             throw new NullPointerException("Please specify a @SchemaDetails and @MigrationScript annotation in your test.");
         }
 
+        if (schemaDetails.embeddedServerPool() && schemaDetails.schemaPoolSize() > 0) {
+            throw new IllegalArgumentException("@SchemaDetails cannot set both embeddedServerPool and schemaPoolSize.");
+        }
+
         try {
-            databaseHelper = DatabaseHelperFactory.newInstance(schemaDetails, schemaSnapshot);
-            databaseHelper.dropAndRecreateDatabaseFromSnapshot(schemaSnapshot);
+            if (schemaDetails.embeddedServerPool()) {
+                pooledServer = EmbeddedServerPool.shared().lease();
+                databaseHelper = DatabaseHelperFactory.newInstance(schemaDetails, pooledServer, schemaSnapshot);
+                databaseHelper.dropAndRecreateDatabaseFromSnapshot(schemaSnapshot);
+            } else if (schemaDetails.schemaPoolSize() > 0) {
+                SchemaPool schemaPool = SCHEMA_POOLS.computeIfAbsent(schemaDetails.url() + "#" + schemaDetails.snapshotScript(),
+                        ignored -> DatabaseHelperFactory.newSchemaPool(schemaDetails, migrationScriptFilename));
+                pooledSchema = schemaPool.lease();
+                databaseHelper = DatabaseHelperFactory.newInstance(schemaDetails, pooledSchema, schemaSnapshot);
+            } else {
+                databaseHelper = DatabaseHelperFactory.newInstance(schemaDetails, schemaSnapshot);
+                databaseHelper.dropAndRecreateDatabaseFromSnapshot(schemaSnapshot);
+            }
         } catch (Exception e) {
             fail("Failed to install starting schema", e);
         }
     }
 
+    @AfterAll
+    protected void releaseServer() throws SQLException {
+        if (pooledServer != null) {
+            databaseHelper.closeConnection();
+            pooledServer.close();
+            pooledServer = null;
+        }
+        if (pooledSchema != null) {
+            databaseHelper.closeConnection();
+            pooledSchema.close();
+            pooledSchema = null;
+        }
+    }
+
     @TestFactory
     @Order(1)
     protected Stream<DynamicTest> liquibaseMigrations() {
@@ -153,4 +187,25 @@ public abstract class LiquibaseMigrationScriptTestBase {
         Liquibase migrator = new Liquibase(migrationScript, new ClassLoaderResourceAccessor(), new JdbcConnection(databaseHelper.getConnection()));
         migrator.update("production");
     }
+
+    private static class BitColumnConverter implements Converter {
+
+        private final Converter originalBooleanConverter;
+
+        BitColumnConverter(Converter originalBooleanConverter) {
+            this.originalBooleanConverter = originalBooleanConverter;
+        }
+
+        @Override
+        public Object convert(Class type, Object value) {
+            if (Boolean.class.equals(type)) {
+                if ("b'1'".equals(value)) {
+                    return Boolean.TRUE;
+                } else if ("b'0'".equals(value)) {
+                    return Boolean.FALSE;
+                }
+            }
+            return originalBooleanConverter.convert(type, value);
+        }
+    }
 }
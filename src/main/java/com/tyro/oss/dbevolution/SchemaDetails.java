@@ -34,4 +34,14 @@ public @interface SchemaDetails {
     String url();
 
     String snapshotScript();
+
+    int restoreThreads() default 1;
+
+    boolean deferIndexes() default false;
+
+    boolean fastRestore() default false;
+
+    boolean embeddedServerPool() default false;
+
+    int schemaPoolSize() default 0;
 }
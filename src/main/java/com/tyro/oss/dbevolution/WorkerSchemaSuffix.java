@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution;
+
+import java.util.Properties;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNumeric;
+
+public final class WorkerSchemaSuffix {
+
+    public static final String SUFFIX_PROPERTY = "dbevolution.schema.suffix";
+    public static final String SUREFIRE_FORK_NUMBER_PROPERTY = "surefire.forkNumber";
+    public static final String GRADLE_WORKER_PROPERTY = "org.gradle.test.worker";
+
+    private WorkerSchemaSuffix() {
+    }
+
+    public static String current() {
+        return fromProperties(System.getProperties());
+    }
+
+    static String fromProperties(Properties properties) {
+        String suffix = properties.getProperty(SUFFIX_PROPERTY);
+        if (suffix != null) {
+            return suffix;
+        }
+        String forkNumber = properties.getProperty(SUREFIRE_FORK_NUMBER_PROPERTY);
+        if (isNumeric(forkNumber)) {
+            return "_fork" + forkNumber;
+        }
+        String worker = properties.getProperty(GRADLE_WORKER_PROPERTY);
+        if (isNumeric(worker)) {
+            return "_worker" + worker;
+        }
+        return "";
+    }
+
+    public static String unsuffixedSchemaName(String schemaName) {
+        return removeFrom(schemaName, current());
+    }
+
+    static String removeFrom(String schemaName, String suffix) {
+        if (isBlank(suffix) || schemaName.length() <= suffix.length() || !schemaName.endsWith(suffix)) {
+            return schemaName;
+        }
+        return schemaName.substring(0, schemaName.length() - suffix.length());
+    }
+
+    static String applyTo(String url, String suffix) {
+        if (isBlank(suffix)) {
+            return url;
+        }
+        DatabaseUrl databaseUrl = new DatabaseUrl(url);
+        String schemaName = databaseUrl.getSchemaName();
+        if (isBlank(schemaName) || schemaName.endsWith(suffix)) {
+            return url;
+        }
+        return new DatabaseUrl(databaseUrl.withSchemaName(schemaName + suffix)).withParameter("createDatabaseIfNotExist", "true");
+    }
+}
@@ -26,9 +26,9 @@ import java.lang.reflect.Field;
 import java.math.BigDecimal;
 import java.sql.Types;
 import java.time.*;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.tyro.oss.dbevolution.assertions.ColumnAssert.StandardStringColumnAssertions.DEFAULT_VARCHAR_MAX_LENGTH;
 import static java.lang.String.format;
@@ -41,6 +41,7 @@ public class ColumnAssert {
 
     private static final String ID_COLUMN_NAME = "id";
     private static final Map<Class<?>, ColumnTypeAssertions> columnTypeAssertions = createTypeAssertions();
+    private static final Map<String, Map<Class<?>, ColumnTypeAssertions>> schemaColumnTypeAssertions = new ConcurrentHashMap<>();
 
     private final TableAssert table;
     private final String name;
@@ -162,7 +163,7 @@ public class ColumnAssert {
     }
 
     private static Map<Class<?>, ColumnTypeAssertions> createTypeAssertions() {
-        Map<Class<?>, ColumnTypeAssertions> columnTypeAssertions = new HashMap<>();
+        Map<Class<?>, ColumnTypeAssertions> columnTypeAssertions = new ConcurrentHashMap<>();
         columnTypeAssertions.put(Boolean.class, new BooleanColumnAssertions());
         columnTypeAssertions.put(Boolean.TYPE, new BooleanColumnAssertions());
         columnTypeAssertions.put(Character.class, new CharacterColumnAssertions(1));
@@ -192,6 +193,20 @@ public class ColumnAssert {
         columnTypeAssertions.put(type, assertions);
     }
 
+    public static void setAssertionsForType(String schemaName, Class<?> type, ColumnTypeAssertions assertions) {
+        schemaColumnTypeAssertions.computeIfAbsent(schemaName, schema -> new ConcurrentHashMap<>()).put(type, assertions);
+    }
+
+    public static void clearAssertionsForSchema(String schemaName) {
+        schemaColumnTypeAssertions.remove(schemaName);
+    }
+
+    private static ColumnTypeAssertions assertionsForType(Database schema, Class<?> type) {
+        Map<Class<?>, ColumnTypeAssertions> schemaAssertions = schema.getName() == null ? null : schemaColumnTypeAssertions.get(schema.getName());
+        ColumnTypeAssertions assertions = schemaAssertions == null ? null : schemaAssertions.get(type);
+        return assertions != null ? assertions : columnTypeAssertions.get(type);
+    }
+
     public ColumnAssert isNotPresent() {
         assertColumnNotInTable(schema, table.getName(), name);
         return this;
@@ -215,7 +230,7 @@ public class ColumnAssert {
     }
 
     public ColumnAssert supportsType(Class<?> hibernateFieldType) {
-        ColumnTypeAssertions assertions = columnTypeAssertions.get(hibernateFieldType);
+        ColumnTypeAssertions assertions = assertionsForType(schema, hibernateFieldType);
         if (assertions == null) {
             throw new IllegalArgumentException("No SQL Type Assertions have been defined supporting " + hibernateFieldType.getName());
         }
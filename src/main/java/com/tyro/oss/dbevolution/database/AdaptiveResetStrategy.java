@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import com.tyro.oss.dbevolution.DatabaseDetails;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+import static java.util.Arrays.asList;
+import static java.util.Comparator.comparingDouble;
+
+public class AdaptiveResetStrategy implements DatabaseCreationStrategy {
+
+    private static final Log LOG = LogFactory.getLog(AdaptiveResetStrategy.class);
+    private static final double SMOOTHING = 0.3;
+    private static final double UNMEASURED = -1;
+
+    private final DatabaseSnapshot snapshot;
+    private final DatabaseCreationStrategy templateCreationStrategy;
+    private final RestoreOptions restoreOptions;
+    private final List<SchemaReset> resets;
+    private final Map<SchemaReset, Double> millisPerUnitOfWork = new IdentityHashMap<>();
+    private DirtyTableTracker dirtyTableTracker;
+    private Map<String, Long> templateRowCounts;
+
+    public AdaptiveResetStrategy(DatabaseSnapshot snapshot) {
+        this(snapshot, RestoreOptions.defaultRestoreOptions().withThreads(Runtime.getRuntime().availableProcessors()));
+    }
+
+    public AdaptiveResetStrategy(DatabaseSnapshot snapshot, RestoreOptions restoreOptions) {
+        this(snapshot, new SnapshotAndLiquibaseMigrationStrategy(snapshot, restoreOptions), restoreOptions);
+    }
+
+    public AdaptiveResetStrategy(DatabaseSnapshot snapshot, DatabaseCreationStrategy templateCreationStrategy, RestoreOptions restoreOptions) {
+        this(snapshot, templateCreationStrategy, restoreOptions, asList(
+                new DirtyTableReset(), new TruncateAndReseedReset(), new TemplateCloneReset(), new FullReloadReset(templateCreationStrategy)));
+    }
+
+    public AdaptiveResetStrategy(DatabaseSnapshot snapshot, DatabaseCreationStrategy templateCreationStrategy, RestoreOptions restoreOptions, List<SchemaReset> resets) {
+        this.snapshot = snapshot;
+        this.templateCreationStrategy = templateCreationStrategy;
+        this.restoreOptions = restoreOptions;
+        this.resets = new ArrayList<>(resets);
+    }
+
+    @Override
+    public void createDatabase(DatabaseDetails databaseDetails, String migrationScriptsFilename) throws Exception {
+        MySqlDatabaseHelper databaseHelper = new MySqlDatabaseHelper(databaseDetails, snapshot.getSnapshotResource(), restoreOptions);
+        String templateSchemaName = databaseDetails.getSchemaName() + TemplateSchemaCloningStrategy.TEMPLATE_SUFFIX;
+
+        if (dirtyTableTracker == null) {
+            long start = System.nanoTime();
+            templateCreationStrategy.createDatabase(databaseDetails, migrationScriptsFilename);
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            databaseHelper.copyDatabaseToTemplate(templateSchemaName);
+            templateRowCounts = databaseHelper.getTableRowCounts(templateSchemaName);
+            dirtyTableTracker = databaseHelper.createDirtyTableTracker();
+            recordInitialLoadAsFullReloadLatency(new ResetContext(databaseDetails, migrationScriptsFilename, databaseHelper, templateSchemaName, templateRowCounts, null), millis);
+        } else {
+            Set<String> dirtyTables = dirtyTableTracker.isAvailable() ? dirtyTableTracker.getDirtyTables() : null;
+            reset(new ResetContext(databaseDetails, migrationScriptsFilename, databaseHelper, templateSchemaName, templateRowCounts, dirtyTables));
+        }
+        dirtyTableTracker.markClean();
+    }
+
+    private void reset(ResetContext context) throws Exception {
+        for (SchemaReset reset : rankResets(context)) {
+            long workload = context.getWorkload(reset.tablesToReset(context));
+            long start = System.nanoTime();
+            if (reset.reset(context)) {
+                long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                recordLatency(reset, workload, millis);
+                LOG.info(format("Reset %s with %s in %d ms", context.getDatabaseDetails().getSchemaName(), reset.getClass().getSimpleName(), millis));
+                return;
+            }
+        }
+        throw new CommandExecutionException("None of the reset strategies could reset " + context.getDatabaseDetails().getSchemaName());
+    }
+
+    List<SchemaReset> rankResets(ResetContext context) throws Exception {
+        List<SchemaReset> applicableResets = new ArrayList<>();
+        Map<SchemaReset, Double> estimatedMillis = new IdentityHashMap<>();
+        for (SchemaReset reset : resets) {
+            if (reset.canReset(context)) {
+                applicableResets.add(reset);
+                Double millisPerUnit = millisPerUnitOfWork.get(reset);
+                estimatedMillis.put(reset, millisPerUnit == null ? UNMEASURED : millisPerUnit * context.getWorkload(reset.tablesToReset(context)));
+            }
+        }
+        applicableResets.sort(comparingDouble(estimatedMillis::get));
+        return applicableResets;
+    }
+
+    void recordLatency(SchemaReset reset, long workload, long millis) {
+        double observed = (double) millis / Math.max(workload, 1);
+        millisPerUnitOfWork.merge(reset, observed, (previous, latest) -> previous + SMOOTHING * (latest - previous));
+    }
+
+    private void recordInitialLoadAsFullReloadLatency(ResetContext context, long millis) {
+        for (SchemaReset reset : resets) {
+            if (reset instanceof FullReloadReset) {
+                recordLatency(reset, context.getWorkload(context.getAllTables()), millis);
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.apache.commons.io.input.CountingInputStream;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class BatchingSnapshotLoader implements SnapshotLoader {
+
+    static final int MAX_BATCH_STATEMENTS = 1000;
+    static final int MAX_BATCH_CHARACTERS = 4 * 1024 * 1024;
+
+    private final DataSource dataSource;
+    private final String schemaName;
+    private final DeferredIndexBuilder deferredIndexBuilder;
+
+    public BatchingSnapshotLoader(DataSource dataSource, String schemaName) {
+        this(dataSource, schemaName, null);
+    }
+
+    public BatchingSnapshotLoader(DataSource dataSource, String schemaName, DeferredIndexBuilder deferredIndexBuilder) {
+        this.dataSource = dataSource;
+        this.schemaName = schemaName;
+        this.deferredIndexBuilder = deferredIndexBuilder;
+    }
+
+    @Override
+    public SnapshotLoadStatistics load(InputStream script) throws CommandExecutionException {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             CountingInputStream countingStream = new CountingInputStream(script);
+             SqlScriptReader reader = new SqlScriptReader(new InputStreamReader(countingStream, UTF_8))) {
+            connection.setCatalog(schemaName);
+            StatementBatch batch = new StatementBatch(connection);
+            for (String sql = reader.nextStatement(); sql != null; sql = reader.nextStatement()) {
+                batch.add(deferredIndexBuilder == null ? sql : deferredIndexBuilder.rewrite(sql), reader.getLineNumber());
+            }
+            batch.flush();
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+            if (deferredIndexBuilder != null) {
+                deferredIndexBuilder.buildDeferredIndexes(dataSource, schemaName);
+            }
+            return new SnapshotLoadStatistics(batch.getStatementCount(), batch.getBatchCount(), countingStream.getByteCount(), System.nanoTime() - start);
+        } catch (IOException | SQLException e) {
+            throw new CommandExecutionException(e);
+        }
+    }
+
+    static class StatementBatch {
+
+        private final Connection connection;
+        private final List<String> statements = new ArrayList<>();
+        private final List<Long> lineNumbers = new ArrayList<>();
+        private int characters;
+        private long statementCount;
+        private long batchCount;
+
+        StatementBatch(Connection connection) {
+            this.connection = connection;
+        }
+
+        void add(String sql, long lineNumber) throws SQLException {
+            if (SqlStatements.returnsResults(sql)) {
+                flush();
+                execute(sql, lineNumber);
+                return;
+            }
+            statements.add(sql);
+            lineNumbers.add(lineNumber);
+            characters += sql.length();
+            if (statements.size() >= MAX_BATCH_STATEMENTS || characters >= MAX_BATCH_CHARACTERS) {
+                flush();
+            }
+        }
+
+        void flush() throws SQLException {
+            if (statements.isEmpty()) {
+                return;
+            }
+            if (statements.size() == 1) {
+                execute(statements.get(0), lineNumbers.get(0));
+            } else {
+                try (Statement statement = connection.createStatement()) {
+                    for (String sql : statements) {
+                        statement.addBatch(sql);
+                    }
+                    statement.executeBatch();
+                    batchCount++;
+                    statementCount += statements.size();
+                } catch (BatchUpdateException e) {
+                    int failed = indexOfFailedStatement(e);
+                    throw failure(statements.get(failed), lineNumbers.get(failed), e);
+                }
+            }
+            statements.clear();
+            lineNumbers.clear();
+            characters = 0;
+        }
+
+        long getStatementCount() {
+            return statementCount;
+        }
+
+        long getBatchCount() {
+            return batchCount;
+        }
+
+        private void execute(String sql, long lineNumber) throws SQLException {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(sql);
+                batchCount++;
+                statementCount++;
+            } catch (SQLException e) {
+                throw failure(sql, lineNumber, e);
+            }
+        }
+
+        private int indexOfFailedStatement(BatchUpdateException e) {
+            int[] updateCounts = e.getUpdateCounts() == null ? new int[0] : e.getUpdateCounts();
+            for (int i = 0; i < updateCounts.length; i++) {
+                if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+                    return i;
+                }
+            }
+            return Math.min(updateCounts.length, statements.size() - 1);
+        }
+
+        private static SQLException failure(String sql, long lineNumber, SQLException cause) {
+            return new SQLException(format("Failed to execute statement ending on line %d: %s", lineNumber, abbreviate(sql)), cause.getSQLState(), cause.getErrorCode(), cause);
+        }
+
+        private static String abbreviate(String sql) {
+            return sql.length() > 200 ? sql.substring(0, 200) + "..." : sql;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import com.github.shyiko.mysql.binlog.BinaryLogClient;
+import com.github.shyiko.mysql.binlog.event.DeleteRowsEventData;
+import com.github.shyiko.mysql.binlog.event.Event;
+import com.github.shyiko.mysql.binlog.event.EventHeaderV4;
+import com.github.shyiko.mysql.binlog.event.EventType;
+import com.github.shyiko.mysql.binlog.event.QueryEventData;
+import com.github.shyiko.mysql.binlog.event.RotateEventData;
+import com.github.shyiko.mysql.binlog.event.TableMapEventData;
+import com.github.shyiko.mysql.binlog.event.UpdateRowsEventData;
+import com.github.shyiko.mysql.binlog.event.WriteRowsEventData;
+import com.github.shyiko.mysql.binlog.event.deserialization.EventDeserializer;
+import com.tyro.oss.dbevolution.DatabaseDetails;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+import static com.github.shyiko.mysql.binlog.event.deserialization.EventDeserializer.CompatibilityMode.CHAR_AND_BINARY_AS_BYTE_ARRAY;
+import static com.github.shyiko.mysql.binlog.event.deserialization.EventDeserializer.CompatibilityMode.DATE_AND_TIME_AS_LONG;
+import static com.github.shyiko.mysql.binlog.event.deserialization.EventDeserializer.CompatibilityMode.INVALID_DATE_AND_TIME_AS_NEGATIVE_ONE;
+import static java.lang.String.format;
+
+final class BinlogRowEventReader {
+
+    private static final Log LOG = LogFactory.getLog(BinlogRowEventReader.class);
+    private static final Set<String> TRANSACTION_CONTROL = new HashSet<>(Arrays.asList("BEGIN", "COMMIT", "ROLLBACK", "SAVEPOINT", "RELEASE", "XA"));
+    private static final long MIN_SERVER_ID = 0x40000000L;
+
+    private final DatabaseDetails databaseDetails;
+    private final int maxRowChanges;
+    private final long timeoutMillis;
+
+    BinlogRowEventReader(DatabaseDetails databaseDetails, int maxRowChanges, long timeoutMillis) {
+        this.databaseDetails = databaseDetails;
+        this.maxRowChanges = maxRowChanges;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    List<RowChange> readRowChanges(BinlogUndoLog.BinlogPosition from, BinlogUndoLog.BinlogPosition to) throws CommandExecutionException {
+        RowChangeCollector collector = new RowChangeCollector(from.getFilename(), to);
+        BinaryLogClient client = new BinaryLogClient(databaseDetails.getHost(), databaseDetails.getPort(), databaseDetails.getAdminUser(), databaseDetails.getAdminPassword());
+        client.setServerId(MIN_SERVER_ID + ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE));
+        client.setBinlogFilename(from.getFilename());
+        client.setBinlogPosition(from.getPosition());
+        client.setKeepAlive(false);
+        client.setEventDeserializer(eventDeserializer());
+        client.registerEventListener(collector);
+        try {
+            client.connect(timeoutMillis);
+            if (!collector.await(timeoutMillis)) {
+                throw new CommandExecutionException(format("Timed out reading the binary log of %s up to %s", databaseDetails.getSchemaName(), to));
+            }
+        } catch (IOException | TimeoutException e) {
+            throw new CommandExecutionException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommandExecutionException(e);
+        } finally {
+            disconnect(client);
+        }
+        if (collector.unsupportedEvent != null) {
+            LOG.info(format("Unable to undo the writes to %s from the binary log: %s", databaseDetails.getSchemaName(), collector.unsupportedEvent));
+            return null;
+        }
+        return collector.changes;
+    }
+
+    private static EventDeserializer eventDeserializer() {
+        EventDeserializer eventDeserializer = new EventDeserializer();
+        eventDeserializer.setCompatibilityMode(DATE_AND_TIME_AS_LONG, INVALID_DATE_AND_TIME_AS_NEGATIVE_ONE, CHAR_AND_BINARY_AS_BYTE_ARRAY);
+        return eventDeserializer;
+    }
+
+    private static void disconnect(BinaryLogClient client) {
+        try {
+            if (client.isConnected()) {
+                client.disconnect();
+            }
+        } catch (IOException e) {
+            LOG.debug("Unable to disconnect from the binary log", e);
+        }
+    }
+
+    private final class RowChangeCollector implements BinaryLogClient.EventListener {
+
+        private final BinlogUndoLog.BinlogPosition end;
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private final Map<Long, TableMapEventData> tablesById = new HashMap<>();
+        private final List<RowChange> changes = new ArrayList<>();
+        private final Pattern schemaReference = Pattern.compile("(?<![\\w$`])`?" + Pattern.quote(databaseDetails.getSchemaName()) + "`?(?![\\w$`])", Pattern.CASE_INSENSITIVE);
+        private String filename;
+        private volatile String unsupportedEvent;
+
+        RowChangeCollector(String filename, BinlogUndoLog.BinlogPosition end) {
+            this.filename = filename;
+            this.end = end;
+        }
+
+        boolean await(long timeoutMillis) throws InterruptedException {
+            return finished.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void onEvent(Event event) {
+            if (finished.getCount() == 0) {
+                return;
+            }
+            EventHeaderV4 header = event.getHeader();
+            EventType eventType = header.getEventType();
+            if (eventType == EventType.ROTATE) {
+                filename = event.<RotateEventData>getData().getBinlogFilename();
+                return;
+            }
+            switch (eventType) {
+                case TABLE_MAP:
+                    TableMapEventData table = event.getData();
+                    tablesById.put(table.getTableId(), table);
+                    break;
+                case QUERY:
+                    checkQuery(event.getData());
+                    break;
+                case WRITE_ROWS:
+                case EXT_WRITE_ROWS:
+                    collectInserts(event.getData());
+                    break;
+                case UPDATE_ROWS:
+                case EXT_UPDATE_ROWS:
+                    collectUpdates(event.getData());
+                    break;
+                case DELETE_ROWS:
+                case EXT_DELETE_ROWS:
+                    collectDeletes(event.getData());
+                    break;
+                default:
+                    break;
+            }
+            if (unsupportedEvent != null || filename.equals(end.getFilename()) && header.getNextPosition() >= end.getPosition()) {
+                finished.countDown();
+            }
+        }
+
+        private void checkQuery(QueryEventData query) {
+            if (!TRANSACTION_CONTROL.contains(SqlStatements.firstKeyword(query.getSql()))
+                    && (databaseDetails.getSchemaName().equals(query.getDatabase()) || schemaReference.matcher(query.getSql()).find())) {
+                unsupportedEvent = "statement " + query.getSql();
+            }
+        }
+
+        private void collectInserts(WriteRowsEventData data) {
+            String table = tableInSchema(data.getTableId(), data.getIncludedColumns());
+            if (table != null) {
+                data.getRows().forEach(row -> add(RowChange.inserted(table, row)));
+            }
+        }
+
+        private void collectUpdates(UpdateRowsEventData data) {
+            String table = tableInSchema(data.getTableId(), data.getIncludedColumnsBeforeUpdate());
+            if (table != null && isFullRowImage(data.getTableId(), data.getIncludedColumns())) {
+                data.getRows().forEach(row -> add(RowChange.updated(table, row.getKey(), row.getValue())));
+            }
+        }
+
+        private void collectDeletes(DeleteRowsEventData data) {
+            String table = tableInSchema(data.getTableId(), data.getIncludedColumns());
+            if (table != null) {
+                data.getRows().forEach(row -> add(RowChange.deleted(table, row)));
+            }
+        }
+
+        private String tableInSchema(long tableId, BitSet includedColumns) {
+            TableMapEventData table = tablesById.get(tableId);
+            if (table == null) {
+                unsupportedEvent = "rows of unknown table id " + tableId;
+                return null;
+            }
+            if (!databaseDetails.getSchemaName().equals(table.getDatabase())) {
+                return null;
+            }
+            return isFullRowImage(tableId, includedColumns) ? table.getTable() : null;
+        }
+
+        private boolean isFullRowImage(long tableId, BitSet includedColumns) {
+            TableMapEventData table = tablesById.get(tableId);
+            if (includedColumns.cardinality() != table.getColumnTypes().length) {
+                unsupportedEvent = "partial row image of " + table.getTable();
+                return false;
+            }
+            return true;
+        }
+
+        private void add(RowChange change) {
+            if (changes.size() == maxRowChanges) {
+                unsupportedEvent = format("more than %d row changes", maxRowChanges);
+            } else {
+                changes.add(change);
+            }
+        }
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import com.github.shyiko.mysql.binlog.event.deserialization.json.JsonBinary;
+import com.tyro.oss.dbevolution.DatabaseDetails;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLSyntaxErrorException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.tyro.oss.dbevolution.database.JdbcSnapshotDumper.quoteIdentifier;
+import static java.lang.String.format;
+
+public class BinlogUndoLog {
+
+    private static final Log LOG = LogFactory.getLog(BinlogUndoLog.class);
+    private static final String BINLOG_CLIENT_CLASS = "com.github.shyiko.mysql.binlog.BinaryLogClient";
+    private static final int MAX_ROW_CHANGES = 100_000;
+    private static final long READ_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+    private static final String ZERO_DATE_TIME = "0000-00-00 00:00:00";
+    private static final BigInteger UNSIGNED_BIGINT_RANGE = BigInteger.ONE.shiftLeft(64);
+
+    private final DataSource dataSource;
+    private final DatabaseDetails databaseDetails;
+
+    private Boolean available;
+    private BinlogPosition markedPosition;
+
+    public BinlogUndoLog(DataSource dataSource, DatabaseDetails databaseDetails) {
+        this.dataSource = dataSource;
+        this.databaseDetails = databaseDetails;
+    }
+
+    public boolean isAvailable() throws SQLException {
+        if (available == null) {
+            available = isBinlogClientPresent() && isRowBasedBinlogEnabled();
+            if (!available) {
+                LOG.warn("Undoing test writes needs mysql-binlog-connector-java on the classpath, log_bin enabled, binlog_format=ROW and binlog_row_image=FULL "
+                        + "so " + databaseDetails.getSchemaName() + " will be fully reset instead");
+            }
+        }
+        return available;
+    }
+
+    public void markPosition() throws SQLException {
+        markedPosition = isAvailable() ? currentPosition() : null;
+    }
+
+    public boolean undo() throws SQLException {
+        if (markedPosition == null) {
+            return false;
+        }
+        BinlogPosition endPosition = currentPosition();
+        if (endPosition.equals(markedPosition)) {
+            return true;
+        }
+        List<RowChange> changes;
+        try {
+            changes = new BinlogRowEventReader(databaseDetails, MAX_ROW_CHANGES, READ_TIMEOUT_MILLIS).readRowChanges(markedPosition, endPosition);
+        } catch (CommandExecutionException e) {
+            LOG.warn("Unable to read the binary log so " + databaseDetails.getSchemaName() + " will be fully reset from now on", e);
+            available = false;
+            return false;
+        }
+        return changes != null && applyInverse(changes);
+    }
+
+    private boolean applyInverse(List<RowChange> changes) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            Map<String, TableColumns> columnsByTable = tableColumns(connection);
+            String reason = reasonUndoIsUnsupported(connection, changes, columnsByTable);
+            if (reason != null) {
+                LOG.info(format("Unable to undo the writes to %s from the binary log: %s", databaseDetails.getSchemaName(), reason));
+                return false;
+            }
+
+            boolean autoCommit = connection.getAutoCommit();
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET SESSION FOREIGN_KEY_CHECKS = 0, SESSION sql_mode = 'NO_AUTO_VALUE_ON_ZERO', SESSION time_zone = '+00:00'");
+                connection.setAutoCommit(false);
+                RowChange unmatched;
+                try {
+                    unmatched = applyInverse(connection, databaseDetails.getSchemaName(), changes, columnsByTable);
+                    if (unmatched == null) {
+                        connection.commit();
+                    } else {
+                        connection.rollback();
+                    }
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(autoCommit);
+                    statement.execute("SET SESSION FOREIGN_KEY_CHECKS = 1, SESSION sql_mode = DEFAULT, SESSION time_zone = DEFAULT");
+                }
+                if (unmatched != null) {
+                    LOG.info(format("Unable to undo the writes to %s from the binary log: the inverse of a %s on %s did not match exactly one row",
+                            databaseDetails.getSchemaName(), unmatched.getType(), unmatched.getTable()));
+                    return false;
+                }
+                for (String table : tablesWithUndoneAutoIncrementInserts(changes, columnsByTable)) {
+                    statement.execute(format("ALTER TABLE %s.%s AUTO_INCREMENT = 1", quoteIdentifier(databaseDetails.getSchemaName()), quoteIdentifier(table)));
+                }
+            }
+            LOG.info(format("Undid %d row changes in %s", changes.size(), databaseDetails.getSchemaName()));
+            return true;
+        }
+    }
+
+    static RowChange applyInverse(Connection connection, String schemaName, List<RowChange> changes, Map<String, TableColumns> columnsByTable) throws SQLException {
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            RowChange change = changes.get(i);
+            if (applyInverse(connection, schemaName, change, columnsByTable.get(change.getTable())) != 1) {
+                return change;
+            }
+        }
+        return null;
+    }
+
+    private static int applyInverse(Connection connection, String schemaName, RowChange change, TableColumns columns) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(inverseStatement(schemaName, change.getTable(), change.getType(), columns))) {
+            List<Object> parameters = inverseParameters(change, columns);
+            for (int i = 0; i < parameters.size(); i++) {
+                statement.setObject(i + 1, parameters.get(i));
+            }
+            return statement.executeUpdate();
+        }
+    }
+
+    private String reasonUndoIsUnsupported(Connection connection, List<RowChange> changes, Map<String, TableColumns> columnsByTable) throws SQLException {
+        Set<String> changedTables = new TreeSet<>();
+        Set<String> tablesWithUpdatesOrDeletes = new TreeSet<>();
+        for (RowChange change : changes) {
+            TableColumns columns = columnsByTable.get(change.getTable());
+            Serializable[] row = change.getType() == RowChange.Type.INSERT ? change.getAfter() : change.getBefore();
+            if (columns == null || row.length != columns.size()) {
+                return "the columns of " + change.getTable() + " no longer match its row events";
+            }
+            changedTables.add(change.getTable());
+            if (change.getType() != RowChange.Type.INSERT) {
+                tablesWithUpdatesOrDeletes.add(change.getTable());
+            }
+        }
+
+        Set<String> tablesWithTriggers = queryTableNames(connection,
+                "SELECT EVENT_OBJECT_TABLE FROM information_schema.TRIGGERS WHERE TRIGGER_SCHEMA = ?");
+        tablesWithTriggers.retainAll(changedTables);
+        if (!tablesWithTriggers.isEmpty()) {
+            return "triggers on " + tablesWithTriggers + " would fire again";
+        }
+
+        Set<String> cascadingParentTables = queryTableNames(connection,
+                "SELECT REFERENCED_TABLE_NAME FROM information_schema.REFERENTIAL_CONSTRAINTS " +
+                        "WHERE CONSTRAINT_SCHEMA = ? AND (DELETE_RULE <> 'RESTRICT' AND DELETE_RULE <> 'NO ACTION' " +
+                        "OR UPDATE_RULE <> 'RESTRICT' AND UPDATE_RULE <> 'NO ACTION')");
+        cascadingParentTables.retainAll(tablesWithUpdatesOrDeletes);
+        if (!cascadingParentTables.isEmpty()) {
+            return "foreign key cascades from " + cascadingParentTables + " are not written to the binary log";
+        }
+        return null;
+    }
+
+    private Set<String> queryTableNames(Connection connection, String sql) throws SQLException {
+        Set<String> tables = new HashSet<>();
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, databaseDetails.getSchemaName());
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    tables.add(rows.getString(1));
+                }
+            }
+        }
+        return tables;
+    }
+
+    private Map<String, TableColumns> tableColumns(Connection connection) throws SQLException {
+        Map<String, TableColumns> columnsByTable = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT TABLE_NAME, COLUMN_NAME, DATA_TYPE, COLUMN_TYPE, COLUMN_KEY, EXTRA FROM information_schema.COLUMNS " +
+                        "WHERE TABLE_SCHEMA = ? ORDER BY TABLE_NAME, ORDINAL_POSITION")) {
+            statement.setString(1, databaseDetails.getSchemaName());
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    String extra = rows.getString(6).toLowerCase(Locale.ROOT);
+                    columnsByTable.computeIfAbsent(rows.getString(1), table -> new TableColumns()).add(
+                            rows.getString(2),
+                            rows.getString(3).toLowerCase(Locale.ROOT),
+                            rows.getString(4).toLowerCase(Locale.ROOT).contains("unsigned"),
+                            "PRI".equals(rows.getString(5)),
+                            extra.contains("virtual generated") || extra.contains("stored generated"),
+                            extra.contains("auto_increment"));
+                }
+            }
+        }
+        return columnsByTable;
+    }
+
+    private static Set<String> tablesWithUndoneAutoIncrementInserts(List<RowChange> changes, Map<String, TableColumns> columnsByTable) {
+        return changes.stream()
+                .filter(change -> change.getType() == RowChange.Type.INSERT && columnsByTable.get(change.getTable()).hasAutoIncrement())
+                .map(RowChange::getTable)
+                .collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    private BinlogPosition currentPosition() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            try (ResultSet rows = statement.executeQuery("SHOW MASTER STATUS")) {
+                return position(rows);
+            } catch (SQLSyntaxErrorException e) {
+                try (ResultSet rows = statement.executeQuery("SHOW BINARY LOG STATUS")) {
+                    return position(rows);
+                }
+            }
+        }
+    }
+
+    private static BinlogPosition position(ResultSet rows) throws SQLException {
+        if (!rows.next()) {
+            throw new SQLException("Binary logging is disabled");
+        }
+        return new BinlogPosition(rows.getString(1), rows.getLong(2));
+    }
+
+    private boolean isRowBasedBinlogEnabled() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT @@log_bin, @@binlog_format, @@binlog_row_image")) {
+            return rows.next() && rows.getBoolean(1) && "ROW".equalsIgnoreCase(rows.getString(2)) && "FULL".equalsIgnoreCase(rows.getString(3));
+        }
+    }
+
+    private static boolean isBinlogClientPresent() {
+        try {
+            Class.forName(BINLOG_CLIENT_CLASS, false, BinlogUndoLog.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    static String inverseStatement(String schemaName, String table, RowChange.Type type, TableColumns columns) {
+        String qualifiedTable = quoteIdentifier(schemaName) + "." + quoteIdentifier(table);
+        switch (type) {
+            case INSERT:
+                return format("DELETE FROM %s WHERE %s LIMIT 1", qualifiedTable, join(columns.keyColumns(), " <=> ?", " AND ", columns));
+            case UPDATE:
+                return format("UPDATE %s SET %s WHERE %s LIMIT 1", qualifiedTable,
+                        join(columns.writableColumns(), " = ?", ", ", columns), join(columns.keyColumns(), " <=> ?", " AND ", columns));
+            default:
+                return format("INSERT INTO %s (%s) VALUES (%s)", qualifiedTable, join(columns.writableColumns(), "", ", ", columns),
+                        columns.writableColumns().mapToObj(column -> "?").collect(Collectors.joining(", ")));
+        }
+    }
+
+    static List<Object> inverseParameters(RowChange change, TableColumns columns) {
+        List<Object> parameters = new ArrayList<>();
+        switch (change.getType()) {
+            case INSERT:
+                columns.keyColumns().forEach(column -> parameters.add(columns.jdbcValue(column, change.getAfter()[column])));
+                break;
+            case UPDATE:
+                columns.writableColumns().forEach(column -> parameters.add(columns.jdbcValue(column, change.getBefore()[column])));
+                columns.keyColumns().forEach(column -> parameters.add(columns.jdbcValue(column, change.getAfter()[column])));
+                break;
+            default:
+                columns.writableColumns().forEach(column -> parameters.add(columns.jdbcValue(column, change.getBefore()[column])));
+                break;
+        }
+        return parameters;
+    }
+
+    private static String join(IntStream columnIndexes, String suffix, String separator, TableColumns columns) {
+        return columnIndexes.mapToObj(column -> quoteIdentifier(columns.names.get(column)) + suffix).collect(Collectors.joining(separator));
+    }
+
+    static Object jdbcValue(String dataType, boolean unsigned, Serializable value) {
+        if (value == null) {
+            return null;
+        }
+        switch (dataType) {
+            case "datetime":
+            case "date":
+                return (Long) value == -1L ? ZERO_DATE_TIME : formatDateTime((Long) value);
+            case "timestamp":
+                return (Long) value <= 0L ? ZERO_DATE_TIME : formatDateTime((Long) value);
+            case "time":
+                return formatTime((Long) value);
+            case "bit":
+                long[] words = ((BitSet) value).toLongArray();
+                return words.length == 0 ? 0L : words[0];
+            case "json":
+                return jsonValue((byte[]) value);
+            case "tinyint":
+                return unsigned ? ((Number) value).intValue() & 0xFF : value;
+            case "smallint":
+                return unsigned ? ((Number) value).intValue() & 0xFFFF : value;
+            case "mediumint":
+                return unsigned ? ((Number) value).intValue() & 0xFFFFFF : value;
+            case "int":
+            case "integer":
+                return unsigned ? ((Number) value).longValue() & 0xFFFFFFFFL : value;
+            case "bigint":
+                long bigint = ((Number) value).longValue();
+                return unsigned && bigint < 0 ? BigInteger.valueOf(bigint).add(UNSIGNED_BIGINT_RANGE) : value;
+            default:
+                return value;
+        }
+    }
+
+    private static String formatDateTime(long millis) {
+        return DATE_TIME_FORMAT.format(Instant.ofEpochMilli(millis).atOffset(ZoneOffset.UTC));
+    }
+
+    private static String formatTime(long millis) {
+        long absolute = Math.abs(millis);
+        return format("%s%02d:%02d:%02d.%03d", millis < 0 ? "-" : "", absolute / 3_600_000, absolute / 60_000 % 60, absolute / 1000 % 60, absolute % 1000);
+    }
+
+    private static String jsonValue(byte[] value) {
+        try {
+            return value.length == 0 ? "null" : JsonBinary.parseAsString(value);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to decode a JSON value from the binary log", e);
+        }
+    }
+
+    static final class BinlogPosition {
+
+        private final String filename;
+        private final long position;
+
+        BinlogPosition(String filename, long position) {
+            this.filename = filename;
+            this.position = position;
+        }
+
+        String getFilename() {
+            return filename;
+        }
+
+        long getPosition() {
+            return position;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            BinlogPosition that = (BinlogPosition) o;
+            return position == that.position && filename.equals(that.filename);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(filename, position);
+        }
+
+        @Override
+        public String toString() {
+            return filename + ":" + position;
+        }
+    }
+
+    static final class TableColumns {
+
+        private final List<String> names = new ArrayList<>();
+        private final List<String> dataTypes = new ArrayList<>();
+        private final BitSet unsigned = new BitSet();
+        private final BitSet primaryKey = new BitSet();
+        private final BitSet generated = new BitSet();
+        private boolean autoIncrement;
+
+        void add(String name, String dataType, boolean unsigned, boolean primaryKey, boolean generated, boolean autoIncrement) {
+            int column = names.size();
+            names.add(name);
+            dataTypes.add(dataType);
+            this.unsigned.set(column, unsigned);
+            this.primaryKey.set(column, primaryKey);
+            this.generated.set(column, generated);
+            this.autoIncrement |= autoIncrement;
+        }
+
+        int size() {
+            return names.size();
+        }
+
+        boolean hasAutoIncrement() {
+            return autoIncrement;
+        }
+
+        IntStream keyColumns() {
+            return primaryKey.isEmpty() ? writableColumns() : primaryKey.stream();
+        }
+
+        IntStream writableColumns() {
+            return IntStream.range(0, names.size()).filter(column -> !generated.get(column));
+        }
+
+        Object jdbcValue(int column, Serializable value) {
+            return BinlogUndoLog.jdbcValue(dataTypes.get(column), unsigned.get(column), value);
+        }
+    }
+}
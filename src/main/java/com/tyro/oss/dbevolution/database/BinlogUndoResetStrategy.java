@@ -0,0 +1,52 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import com.tyro.oss.dbevolution.DatabaseDetails;
+
+public class BinlogUndoResetStrategy implements DatabaseCreationStrategy {
+
+    private final DatabaseSnapshot snapshot;
+    private final DatabaseCreationStrategy fullResetStrategy;
+    private final RestoreOptions restoreOptions;
+    private BinlogUndoLog undoLog;
+
+    public BinlogUndoResetStrategy(DatabaseSnapshot snapshot) {
+        this(snapshot, RestoreOptions.defaultRestoreOptions().withThreads(Runtime.getRuntime().availableProcessors()));
+    }
+
+    public BinlogUndoResetStrategy(DatabaseSnapshot snapshot, RestoreOptions restoreOptions) {
+        this(snapshot, new SnapshotAndLiquibaseMigrationStrategy(snapshot, restoreOptions), restoreOptions);
+    }
+
+    public BinlogUndoResetStrategy(DatabaseSnapshot snapshot, DatabaseCreationStrategy fullResetStrategy, RestoreOptions restoreOptions) {
+        this.snapshot = snapshot;
+        this.fullResetStrategy = fullResetStrategy;
+        this.restoreOptions = restoreOptions;
+    }
+
+    @Override
+    public void createDatabase(DatabaseDetails databaseDetails, String migrationScriptsFilename) throws Exception {
+        if (undoLog == null) {
+            undoLog = new MySqlDatabaseHelper(databaseDetails, snapshot.getSnapshotResource(), restoreOptions).createBinlogUndoLog();
+        } else if (undoLog.undo()) {
+            undoLog.markPosition();
+            return;
+        }
+        fullResetStrategy.createDatabase(databaseDetails, migrationScriptsFilename);
+        undoLog.markPosition();
+    }
+}
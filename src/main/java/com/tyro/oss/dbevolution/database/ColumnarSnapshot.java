@@ -0,0 +1,176 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import com.tyro.oss.dbevolution.database.JdbcSnapshotDumper.DumpedColumn;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.tyro.oss.dbevolution.database.JdbcSnapshotDumper.appendHexDigits;
+import static com.tyro.oss.dbevolution.database.JdbcSnapshotDumper.appendString;
+import static com.tyro.oss.dbevolution.database.JdbcSnapshotDumper.quoteIdentifier;
+import static org.apache.commons.lang3.StringUtils.endsWithIgnoreCase;
+
+final class ColumnarSnapshot {
+
+    static final String EXTENSION = ".zip";
+    static final String SCHEMA_ENTRY = "schema.sql";
+    static final String POST_DATA_ENTRY = "post-data.sql";
+    static final String PRIVILEGES_ENTRY = "privileges.sql";
+    static final String DATA_ENTRY_PREFIX = "data/";
+    static final String DATA_ENTRY_SUFFIX = ".tsv";
+
+    private static final String NULL = "\\N";
+    private static final String TEXT_COLUMN = "text";
+    private static final String HEX_COLUMN = "hex";
+    private static final String BIT_COLUMN = "bit";
+
+    private ColumnarSnapshot() {
+    }
+
+    static boolean isColumnar(String filename) {
+        return filename != null && endsWithIgnoreCase(filename, EXTENSION);
+    }
+
+    static String dataEntryName(String table) {
+        return DATA_ENTRY_PREFIX + table + DATA_ENTRY_SUFFIX;
+    }
+
+    static boolean isDataEntry(String entryName) {
+        return entryName.startsWith(DATA_ENTRY_PREFIX) && entryName.endsWith(DATA_ENTRY_SUFFIX);
+    }
+
+    static String tableName(String dataEntryName) {
+        return dataEntryName.substring(DATA_ENTRY_PREFIX.length(), dataEntryName.length() - DATA_ENTRY_SUFFIX.length());
+    }
+
+    static void writeRows(String table, List<DumpedColumn> columns, ResultSet rows, Writer writer) throws SQLException, IOException {
+        StringBuilder line = new StringBuilder();
+        for (DumpedColumn column : columns) {
+            if (line.length() > 0) {
+                line.append('\t');
+            }
+            appendField(line, (column.isBit() ? BIT_COLUMN : column.isBinary() ? HEX_COLUMN : TEXT_COLUMN) + ":" + column.getName());
+        }
+        writer.write(line.append('\n').toString());
+
+        while (rows.next()) {
+            line.setLength(0);
+            for (int i = 1; i <= columns.size(); i++) {
+                if (i > 1) {
+                    line.append('\t');
+                }
+                if (columns.get(i - 1).isBinary()) {
+                    byte[] value = rows.getBytes(i);
+                    if (value == null) {
+                        line.append(NULL);
+                    } else {
+                        appendHexDigits(line, value);
+                    }
+                } else {
+                    String value = rows.getString(i);
+                    if (value == null) {
+                        line.append(NULL);
+                    } else {
+                        appendField(line, value);
+                    }
+                }
+            }
+            writer.write(line.append('\n').toString());
+        }
+    }
+
+    static String loadDataStatement(String table, String header) {
+        StringBuilder columnList = new StringBuilder();
+        StringBuilder conversions = new StringBuilder();
+        int variable = 0;
+        for (String field : splitFields(header)) {
+            int separator = field.indexOf(':');
+            String format = field.substring(0, separator);
+            String column = quoteIdentifier(field.substring(separator + 1));
+            if (columnList.length() > 0) {
+                columnList.append(", ");
+            }
+            if (TEXT_COLUMN.equals(format)) {
+                columnList.append(column);
+                continue;
+            }
+            String userVariable = "@column" + ++variable;
+            columnList.append(userVariable);
+            conversions.append(conversions.length() == 0 ? " SET " : ", ").append(column).append(" = ")
+                    .append(BIT_COLUMN.equals(format) ? "CAST(CONV(" + userVariable + ", 16, 10) AS UNSIGNED)" : "UNHEX(" + userVariable + ")");
+        }
+
+        StringBuilder statement = new StringBuilder("LOAD DATA LOCAL INFILE ");
+        appendString(statement, dataEntryName(table));
+        return statement.append(" INTO TABLE ").append(quoteIdentifier(table))
+                .append(" CHARACTER SET utf8mb4 FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n' (")
+                .append(columnList).append(')').append(conversions)
+                .toString();
+    }
+
+    static void appendField(StringBuilder line, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\0':
+                    line.append("\\0");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\u001a':
+                    line.append("\\Z");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                default:
+                    line.append(c);
+            }
+        }
+    }
+
+    static List<String> splitFields(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\t') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\\' && i + 1 < line.length()) {
+                char escaped = line.charAt(++i);
+                field.append(escaped == '0' ? '\0' : escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped == 'Z' ? '\u001a' : escaped);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static com.tyro.oss.dbevolution.database.ColumnarSnapshot.POST_DATA_ENTRY;
+import static com.tyro.oss.dbevolution.database.ColumnarSnapshot.SCHEMA_ENTRY;
+import static com.tyro.oss.dbevolution.database.ColumnarSnapshot.dataEntryName;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class ColumnarSnapshotDumper {
+
+    private static final Log LOG = LogFactory.getLog(ColumnarSnapshotDumper.class);
+
+    private final DataSource dataSource;
+    private final String schemaName;
+    private final JdbcSnapshotDumper jdbcSnapshotDumper;
+
+    public ColumnarSnapshotDumper(DataSource dataSource, String schemaName, int threads) {
+        this.dataSource = dataSource;
+        this.schemaName = schemaName;
+        this.jdbcSnapshotDumper = new JdbcSnapshotDumper(dataSource, schemaName, threads);
+    }
+
+    public void dumpSchema(ZipOutputStream snapshot, boolean includeData) throws CommandExecutionException {
+        List<File> dataFiles = new ArrayList<>();
+        List<Connection> snapshotConnections = new ArrayList<>();
+        ExecutorService executor = jdbcSnapshotDumper.newExecutor();
+        try (Connection connection = dataSource.getConnection()) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(snapshot, UTF_8), 64 * 1024);
+            List<String> tables = new ArrayList<>();
+            List<String> views = new ArrayList<>();
+            JdbcSnapshotDumper.listTablesAndViews(connection, schemaName, tables, views);
+            Map<String, Future<File>> tableData = includeData
+                    ? jdbcSnapshotDumper.dumpTableData(executor, connection, tables, dataFiles, snapshotConnections, ColumnarSnapshot::writeRows)
+                    : null;
+
+            snapshot.putNextEntry(new ZipEntry(SCHEMA_ENTRY));
+            jdbcSnapshotDumper.writeHeader(writer);
+            for (String table : tables) {
+                jdbcSnapshotDumper.writeCreateTable(connection, table, writer);
+            }
+            writer.flush();
+            snapshot.closeEntry();
+
+            if (includeData) {
+                for (String table : tables) {
+                    snapshot.putNextEntry(new ZipEntry(dataEntryName(table)));
+                    Files.copy(tableData.get(table).get().toPath(), snapshot);
+                    snapshot.closeEntry();
+                }
+            }
+
+            snapshot.putNextEntry(new ZipEntry(POST_DATA_ENTRY));
+            jdbcSnapshotDumper.writeViewsAndTriggers(connection, views, writer);
+            jdbcSnapshotDumper.writeFooter(writer);
+            writer.flush();
+            snapshot.closeEntry();
+        } catch (SQLException | IOException | ExecutionException e) {
+            LOG.error("Error dumping schema " + schemaName, e);
+            throw new CommandExecutionException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommandExecutionException(e);
+        } finally {
+            executor.shutdownNow();
+            JdbcSnapshotDumper.endConsistentSnapshots(snapshotConnections);
+            dataFiles.forEach(File::delete);
+        }
+    }
+}
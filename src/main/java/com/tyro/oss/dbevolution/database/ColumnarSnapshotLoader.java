@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import com.mysql.cj.jdbc.JdbcStatement;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.input.CountingInputStream;
+
+import javax.sql.DataSource;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static com.tyro.oss.dbevolution.database.ColumnarSnapshot.SCHEMA_ENTRY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class ColumnarSnapshotLoader implements SnapshotLoader {
+
+    private final DataSource dataSource;
+    private final String schemaName;
+    private final DeferredIndexBuilder deferredIndexBuilder;
+
+    public ColumnarSnapshotLoader(DataSource dataSource, String schemaName) {
+        this(dataSource, schemaName, null);
+    }
+
+    public ColumnarSnapshotLoader(DataSource dataSource, String schemaName, DeferredIndexBuilder deferredIndexBuilder) {
+        this.dataSource = dataSource;
+        this.schemaName = schemaName;
+        this.deferredIndexBuilder = deferredIndexBuilder;
+    }
+
+    @Override
+    public SnapshotLoadStatistics load(InputStream snapshot) throws CommandExecutionException {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
+             CountingInputStream countingStream = new CountingInputStream(snapshot);
+             ZipInputStream entries = new ZipInputStream(new BufferedInputStream(countingStream, 64 * 1024), UTF_8)) {
+            connection.setCatalog(schemaName);
+            BatchingSnapshotLoader.StatementBatch batch = new BatchingSnapshotLoader.StatementBatch(connection);
+            long tablesLoaded = 0;
+            boolean deferredIndexesBuilt = deferredIndexBuilder == null;
+            for (ZipEntry entry = entries.getNextEntry(); entry != null; entry = entries.getNextEntry()) {
+                String name = entry.getName();
+                if (ColumnarSnapshot.isDataEntry(name)) {
+                    batch.flush();
+                    if (loadTableData(connection, ColumnarSnapshot.tableName(name), entries)) {
+                        tablesLoaded++;
+                    }
+                } else if (name.endsWith(".sql")) {
+                    if (!deferredIndexesBuilt && !SCHEMA_ENTRY.equals(name)) {
+                        buildDeferredIndexes(connection, batch);
+                        deferredIndexesBuilt = true;
+                    }
+                    executeScript(batch, entries);
+                }
+            }
+            batch.flush();
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+            if (!deferredIndexesBuilt) {
+                buildDeferredIndexes(connection, batch);
+            }
+            return new SnapshotLoadStatistics(batch.getStatementCount() + tablesLoaded, batch.getBatchCount() + tablesLoaded,
+                    countingStream.getByteCount(), System.nanoTime() - start);
+        } catch (IOException | SQLException e) {
+            throw new CommandExecutionException(e);
+        }
+    }
+
+    private void executeScript(BatchingSnapshotLoader.StatementBatch batch, InputStream script) throws IOException, SQLException {
+        try (SqlScriptReader reader = new SqlScriptReader(new InputStreamReader(new CloseShieldInputStream(script), UTF_8))) {
+            for (String sql = reader.nextStatement(); sql != null; sql = reader.nextStatement()) {
+                batch.add(deferredIndexBuilder == null ? sql : deferredIndexBuilder.rewrite(sql), reader.getLineNumber());
+            }
+        }
+    }
+
+    private boolean loadTableData(Connection connection, String table, InputStream data) throws IOException, SQLException {
+        String header = readLine(data);
+        if (header == null || header.isEmpty()) {
+            return false;
+        }
+        try (Statement statement = connection.createStatement()) {
+            ConnectionPool.unwrap(statement, JdbcStatement.class).setLocalInfileInputStream(new CloseShieldInputStream(data));
+            statement.execute(ColumnarSnapshot.loadDataStatement(table, header));
+        }
+        return true;
+    }
+
+    private void buildDeferredIndexes(Connection connection, BatchingSnapshotLoader.StatementBatch batch) throws SQLException {
+        batch.flush();
+        if (!connection.getAutoCommit()) {
+            connection.commit();
+        }
+        deferredIndexBuilder.buildDeferredIndexes(dataSource, schemaName);
+    }
+
+    private static String readLine(InputStream data) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = data.read()) != -1 && b != '\n') {
+            line.write(b);
+        }
+        return b == -1 && line.size() == 0 ? null : new String(line.toByteArray(), UTF_8);
+    }
+}
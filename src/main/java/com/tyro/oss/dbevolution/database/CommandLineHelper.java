@@ -15,19 +15,45 @@
  */
 package com.tyro.oss.dbevolution.database;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.io.*;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.Charset;
 import java.util.Arrays;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.String.format;
 
 public class CommandLineHelper {
 
     private static final Log LOG = LogFactory.getLog(CommandLineHelper.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_CONCURRENT_COMMANDS = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private static final ExecutorService COMMAND_EXECUTOR = newCommandExecutor();
+    private static final ScheduledExecutorService TIMEOUT_SCHEDULER = newTimeoutScheduler();
+
+    private final long timeoutMillis;
+
+    public CommandLineHelper() {
+        this(0);
+    }
+
+    public CommandLineHelper(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
 
     public String getHostname() {
         try {
@@ -38,104 +64,132 @@ public class CommandLineHelper {
     }
 
     public String executeCommand(String[] osCommand) throws CommandExecutionException {
-        String commandResult;
-        try {
-            LOG.debug("Executing " + Arrays.toString(osCommand));
-
-            final Process process = Runtime.getRuntime().exec(osCommand);
-            StreamReader outputReader = new StreamReader(process.getInputStream());
-            StreamReader errorReader = new StreamReader(process.getErrorStream());
-
-            ExecutorService executor = Executors.newCachedThreadPool();
-
-            Future<String> outputReaderFuture = executor.submit(outputReader);
-            Future<String> errorReaderFuture = executor.submit(errorReader);
-
-            process.waitFor();
-            commandResult = outputReaderFuture.get();
-            String stdErrorOutput = errorReaderFuture.get();
-
-            if (process.exitValue() != 0) {
-                String errString = "stderr: [" + stdErrorOutput + "]";
-                LOG.error(errString);
-                throw new CommandExecutionException(errString);
-            }
-            return commandResult;
-        } catch (Exception e) {
-            LOG.error("Error executing command: " + Arrays.toString(osCommand), e);
-            throw new CommandExecutionException(e);
-        }
+        return await(executeCommandAsync(osCommand));
     }
 
     public void executeCommand(String[] osCommand, File outputFile, boolean append) throws CommandExecutionException {
-        try {
-            LOG.debug("Executing " + Arrays.toString(osCommand));
+        await(executeCommandAsync(osCommand, outputFile, append));
+    }
 
-            Process process = Runtime.getRuntime().exec(osCommand);
-            StreamPiper outputPiper = new StreamPiper(process.getInputStream(), new FileOutputStream(outputFile, append));
-            StreamReader errorReader = new StreamReader(process.getErrorStream());
+    public void executeCommand(String[] osCommand, OutputStream output) throws CommandExecutionException {
+        await(executeCommandAsync(osCommand, output));
+    }
 
-            ExecutorService executor = Executors.newCachedThreadPool();
+    public CompletableFuture<String> executeCommandAsync(String[] osCommand) {
+        return execute(osCommand, Redirect.PIPE, CommandLineHelper::readLines);
+    }
 
-            Future<Object> outputPiperFuture = executor.submit(outputPiper);
-            Future<String> errorReaderFuture = executor.submit(errorReader);
+    public CompletableFuture<Void> executeCommandAsync(String[] osCommand, File outputFile, boolean append) {
+        return execute(osCommand, append ? Redirect.appendTo(outputFile) : Redirect.to(outputFile), output -> null);
+    }
 
-            process.waitFor();
-            outputPiperFuture.get();
-            String stdErrorOutput = errorReaderFuture.get();
+    public CompletableFuture<Void> executeCommandAsync(String[] osCommand, OutputStream output) {
+        return execute(osCommand, Redirect.PIPE, input -> {
+            pipe(input, output);
+            return null;
+        });
+    }
 
-            if (process.exitValue() != 0) {
-                String errString = "stderr: [" + stdErrorOutput + "]";
-                LOG.error(errString);
-                throw new CommandExecutionException(errString);
+    private <T> CompletableFuture<T> execute(String[] osCommand, Redirect output, OutputHandler<T> outputHandler) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        COMMAND_EXECUTOR.execute(() -> {
+            if (result.isDone()) {
+                return;
             }
-        } catch (Exception e) {
-            LOG.error("Error executing command", e);
+            File errorFile = null;
+            try {
+                LOG.debug("Executing " + Arrays.toString(osCommand));
+
+                errorFile = File.createTempFile("command", ".err");
+                Process process = new ProcessBuilder(osCommand).redirectOutput(output).redirectError(errorFile).start();
+                ScheduledFuture<?> timeout = timeoutMillis > 0 ? TIMEOUT_SCHEDULER.schedule(process::destroyForcibly, timeoutMillis, TimeUnit.MILLISECONDS) : null;
+                result.whenComplete((value, error) -> {
+                    if (result.isCancelled()) {
+                        process.destroyForcibly();
+                    }
+                });
+
+                try (InputStream processOutput = process.getInputStream()) {
+                    T value = outputHandler.handle(processOutput);
+                    int exitValue = process.waitFor();
+                    if (timeout != null && !timeout.cancel(false)) {
+                        throw new CommandExecutionException(format("%s timed out after %d ms", osCommand[0], timeoutMillis));
+                    }
+                    if (exitValue != 0) {
+                        String errString = "stderr: [" + FileUtils.readFileToString(errorFile, Charset.defaultCharset()) + "]";
+                        LOG.error(errString);
+                        throw new CommandExecutionException(errString);
+                    }
+                    result.complete(value);
+                }
+            } catch (Exception e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                if (!result.isCancelled()) {
+                    LOG.error("Error executing command: " + Arrays.toString(osCommand), e);
+                }
+                result.completeExceptionally(e instanceof CommandExecutionException ? e : new CommandExecutionException(e));
+            } finally {
+                FileUtils.deleteQuietly(errorFile);
+            }
+        });
+        return result;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws CommandExecutionException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
             throw new CommandExecutionException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof CommandExecutionException ? (CommandExecutionException) e.getCause() : new CommandExecutionException(e.getCause());
         }
     }
 
-    private static class StreamReader implements Callable<String> {
-
-        private BufferedReader reader;
-
-        public StreamReader(InputStream inputStream) {
-            reader = new BufferedReader(new InputStreamReader(inputStream));
+    private static String readLines(InputStream inputStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        StringBuilder builder = new StringBuilder();
+        for (String next = reader.readLine(); next != null; next = reader.readLine()) {
+            builder.append(next).append("\n");
         }
+        return builder.toString();
+    }
 
-        @Override
-        public String call() {
-            StringBuilder builder = new StringBuilder();
-            try {
-                for (String next = reader.readLine(); next != null; next = reader.readLine()) {
-                    builder.append(next).append("\n");
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            return builder.toString();
+    private static void pipe(InputStream inputStream, OutputStream outputStream) throws IOException {
+        byte[] bytes = new byte[BUFFER_SIZE];
+        int bytesRead;
+        while ((bytesRead = inputStream.read(bytes)) != -1) {
+            outputStream.write(bytes, 0, bytesRead);
         }
+        outputStream.flush();
     }
 
-    private static class StreamPiper implements Callable<Object> {
+    private static ExecutorService newCommandExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_CONCURRENT_COMMANDS, MAX_CONCURRENT_COMMANDS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), daemonThreads("command-line-helper"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 
-        private final InputStream inputStream;
-        private final OutputStream outputStream;
+    private static ScheduledExecutorService newTimeoutScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, daemonThreads("command-timeout"));
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
 
-        public StreamPiper(InputStream inputStream, OutputStream outputStream) {
-            this.inputStream = inputStream;
-            this.outputStream = outputStream;
-        }
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
 
-        @Override
-        public Object call() throws IOException {
-            byte[] bytes = new byte[512];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(bytes)) != -1) {
-                outputStream.write(bytes, 0, bytesRead);
-            }
-            outputStream.close();
-            return null;
-        }
+    private interface OutputHandler<T> {
+        T handle(InputStream output) throws IOException;
     }
 }
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+public abstract class ConnectionPool implements AutoCloseable {
+
+    public static final String POOL_PROPERTY = "dbevolution.pool";
+
+    private static final Log LOG = LogFactory.getLog(ConnectionPool.class);
+    private static final long SLOW_BORROW_MILLIS = 1_000;
+
+    protected final ConnectionPoolSettings settings;
+
+    private final DataSource meteredDataSource = new MeteredDataSource();
+    private final Map<Connection, Borrow> outstandingBorrows = new ConcurrentHashMap<>();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalBorrowNanos = new AtomicLong();
+    private final LongAccumulator maxBorrowNanos = new LongAccumulator(Long::max, 0);
+    private final AtomicLong leakedConnections = new AtomicLong();
+
+    protected ConnectionPool(ConnectionPoolSettings settings) {
+        this.settings = settings;
+    }
+
+    public static ConnectionPool create(ConnectionPoolSettings settings) {
+        String implementation = System.getProperty(POOL_PROPERTY, "dbcp");
+        if ("hikari".equalsIgnoreCase(implementation)) {
+            return new HikariConnectionPool(settings);
+        }
+        if ("dbcp".equalsIgnoreCase(implementation)) {
+            return new DbcpConnectionPool(settings);
+        }
+        throw new IllegalArgumentException(format("Unknown connection pool %s; expected dbcp or hikari", implementation));
+    }
+
+    public DataSource getDataSource() {
+        return meteredDataSource;
+    }
+
+    public ConnectionPoolMetrics getMetrics() {
+        detectLeaks();
+        return new ConnectionPoolMetrics(borrowCount.get(), totalBorrowNanos.get(), maxBorrowNanos.get(),
+                getActiveConnections(), getIdleConnections(), getMaxSize(), leakedConnections.get());
+    }
+
+    public void exemptFromLeakDetection(Connection connection) {
+        outstandingBorrows.remove(connection);
+    }
+
+    static <T> T unwrap(Statement statement, Class<T> iface) throws SQLException {
+        Statement target = DbcpConnectionPool.innermostDelegate(statement);
+        return iface.isInstance(target) ? iface.cast(target) : target.unwrap(iface);
+    }
+
+    public abstract int getMaxSize();
+
+    public abstract void setMaxSize(int maxSize);
+
+    public abstract int getActiveConnections();
+
+    public abstract int getIdleConnections();
+
+    @Override
+    public abstract void close();
+
+    protected abstract DataSource pooledDataSource();
+
+    protected <T> T unwrapPooledDataSource(Class<T> iface) throws SQLException {
+        return pooledDataSource().unwrap(iface);
+    }
+
+    protected boolean isPooledDataSourceWrapperFor(Class<?> iface) throws SQLException {
+        return pooledDataSource().isWrapperFor(iface);
+    }
+
+    private Connection borrow(Connection connection, long borrowNanos) {
+        borrowCount.incrementAndGet();
+        totalBorrowNanos.addAndGet(borrowNanos);
+        maxBorrowNanos.accumulate(borrowNanos);
+        if (NANOSECONDS.toMillis(borrowNanos) >= SLOW_BORROW_MILLIS) {
+            LOG.warn(format("Waited %d ms for a connection to %s: %d active, %d idle, %d max",
+                    NANOSECONDS.toMillis(borrowNanos), settings.getUrl(), getActiveConnections(), getIdleConnections(), getMaxSize()));
+        }
+        Connection borrowed = (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "close":
+                    outstandingBorrows.remove(proxy);
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        });
+        if (settings.getLeakDetectionMillis() > 0) {
+            detectLeaks();
+            outstandingBorrows.put(borrowed, new Borrow(new Throwable("Connection borrowed here")));
+        }
+        return borrowed;
+    }
+
+    private void detectLeaks() {
+        long leakDetectionMillis = settings.getLeakDetectionMillis();
+        if (leakDetectionMillis <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (Borrow borrow : outstandingBorrows.values()) {
+            if (!borrow.reported && now - borrow.startNanos > MILLISECONDS.toNanos(leakDetectionMillis)) {
+                borrow.reported = true;
+                leakedConnections.incrementAndGet();
+                LOG.warn(format("Connection to %s has been held for more than %d ms without being closed", settings.getUrl(), leakDetectionMillis), borrow.borrowedAt);
+            }
+        }
+    }
+
+    private static class Borrow {
+
+        private final long startNanos = System.nanoTime();
+        private final Throwable borrowedAt;
+        private volatile boolean reported;
+
+        Borrow(Throwable borrowedAt) {
+            this.borrowedAt = borrowedAt;
+        }
+    }
+
+    private class MeteredDataSource implements DataSource {
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            long start = System.nanoTime();
+            Connection connection = pooledDataSource().getConnection();
+            return borrow(connection, System.nanoTime() - start);
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            long start = System.nanoTime();
+            Connection connection = pooledDataSource().getConnection(username, password);
+            return borrow(connection, System.nanoTime() - start);
+        }
+
+        @Override
+        public PrintWriter getLogWriter() throws SQLException {
+            return pooledDataSource().getLogWriter();
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) throws SQLException {
+            pooledDataSource().setLogWriter(out);
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) throws SQLException {
+            pooledDataSource().setLoginTimeout(seconds);
+        }
+
+        @Override
+        public int getLoginTimeout() throws SQLException {
+            return pooledDataSource().getLoginTimeout();
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            return pooledDataSource().getParentLogger();
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            return iface.isInstance(this) ? iface.cast(this) : unwrapPooledDataSource(iface);
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) throws SQLException {
+            return iface.isInstance(this) || isPooledDataSourceWrapperFor(iface);
+        }
+    }
+}
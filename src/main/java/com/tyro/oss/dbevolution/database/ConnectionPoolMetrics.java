@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+public class ConnectionPoolMetrics {
+
+    private final long borrowCount;
+    private final long totalBorrowNanos;
+    private final long maxBorrowNanos;
+    private final int activeConnections;
+    private final int idleConnections;
+    private final int maxSize;
+    private final long leakedConnections;
+
+    public ConnectionPoolMetrics(long borrowCount, long totalBorrowNanos, long maxBorrowNanos, int activeConnections, int idleConnections,
+                                 int maxSize, long leakedConnections) {
+        this.borrowCount = borrowCount;
+        this.totalBorrowNanos = totalBorrowNanos;
+        this.maxBorrowNanos = maxBorrowNanos;
+        this.activeConnections = activeConnections;
+        this.idleConnections = idleConnections;
+        this.maxSize = maxSize;
+        this.leakedConnections = leakedConnections;
+    }
+
+    public long getBorrowCount() {
+        return borrowCount;
+    }
+
+    public double getAverageBorrowMillis() {
+        return borrowCount == 0 ? 0 : totalBorrowNanos / 1_000_000d / borrowCount;
+    }
+
+    public long getMaxBorrowMillis() {
+        return NANOSECONDS.toMillis(maxBorrowNanos);
+    }
+
+    public int getActiveConnections() {
+        return activeConnections;
+    }
+
+    public int getIdleConnections() {
+        return idleConnections;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getLeakedConnections() {
+        return leakedConnections;
+    }
+
+    @Override
+    public String toString() {
+        return format("%d borrows (%.2f ms average, %d ms max), %d active, %d idle, %d max, %d leaked",
+                borrowCount, getAverageBorrowMillis(), getMaxBorrowMillis(), activeConnections, idleConnections, maxSize, leakedConnections);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ConnectionPoolSettings {
+
+    public static final String MAX_SIZE_PROPERTY = "dbevolution.pool.maxSize";
+    public static final String MIN_IDLE_PROPERTY = "dbevolution.pool.minIdle";
+    public static final String BORROW_TIMEOUT_PROPERTY = "dbevolution.pool.borrowTimeoutMillis";
+    public static final String LEAK_DETECTION_PROPERTY = "dbevolution.pool.leakDetectionMillis";
+    public static final String STATEMENT_CACHE_SIZE_PROPERTY = "dbevolution.pool.statementCacheSize";
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int maxSize;
+    private final int minIdle;
+    private final boolean defaultAutoCommit;
+    private final long borrowTimeoutMillis;
+    private final long leakDetectionMillis;
+    private final int statementCacheSize;
+    private final Map<String, String> connectionProperties;
+
+    private ConnectionPoolSettings(String url, String username, String password, int maxSize, int minIdle, boolean defaultAutoCommit,
+                                   long borrowTimeoutMillis, long leakDetectionMillis, int statementCacheSize, Map<String, String> connectionProperties) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.minIdle = minIdle;
+        this.defaultAutoCommit = defaultAutoCommit;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.leakDetectionMillis = leakDetectionMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.connectionProperties = connectionProperties;
+    }
+
+    public static ConnectionPoolSettings forUrl(String url, String username, String password) {
+        return new ConnectionPoolSettings(url, username, password,
+                Integer.getInteger(MAX_SIZE_PROPERTY, 10),
+                Integer.getInteger(MIN_IDLE_PROPERTY, 0),
+                true,
+                Long.getLong(BORROW_TIMEOUT_PROPERTY, 0),
+                Long.getLong(LEAK_DETECTION_PROPERTY, 0),
+                Integer.getInteger(STATEMENT_CACHE_SIZE_PROPERTY, 250),
+                Collections.emptyMap());
+    }
+
+    public ConnectionPoolSettings withMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Connection pool size must be at least 1 but was " + maxSize);
+        }
+        return new ConnectionPoolSettings(url, username, password, maxSize, minIdle, defaultAutoCommit,
+                borrowTimeoutMillis, leakDetectionMillis, statementCacheSize, connectionProperties);
+    }
+
+    public ConnectionPoolSettings withDefaultAutoCommit(boolean defaultAutoCommit) {
+        return new ConnectionPoolSettings(url, username, password, maxSize, minIdle, defaultAutoCommit,
+                borrowTimeoutMillis, leakDetectionMillis, statementCacheSize, connectionProperties);
+    }
+
+    public ConnectionPoolSettings withLeakDetectionMillis(long leakDetectionMillis) {
+        return new ConnectionPoolSettings(url, username, password, maxSize, minIdle, defaultAutoCommit,
+                borrowTimeoutMillis, leakDetectionMillis, statementCacheSize, connectionProperties);
+    }
+
+    public ConnectionPoolSettings withConnectionProperty(String name, String value) {
+        Map<String, String> properties = new LinkedHashMap<>(connectionProperties);
+        properties.put(name, value);
+        return new ConnectionPoolSettings(url, username, password, maxSize, minIdle, defaultAutoCommit,
+                borrowTimeoutMillis, leakDetectionMillis, statementCacheSize, Collections.unmodifiableMap(properties));
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public boolean isDefaultAutoCommit() {
+        return defaultAutoCommit;
+    }
+
+    public long getBorrowTimeoutMillis() {
+        return borrowTimeoutMillis;
+    }
+
+    public long getLeakDetectionMillis() {
+        return leakDetectionMillis;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public Map<String, String> getDriverProperties() {
+        Map<String, String> properties = new LinkedHashMap<>();
+        if (statementCacheSize > 0) {
+            properties.put("cachePrepStmts", "true");
+            properties.put("prepStmtCacheSize", String.valueOf(statementCacheSize));
+            properties.put("prepStmtCacheSqlLimit", "2048");
+        }
+        properties.putAll(connectionProperties);
+        return properties;
+    }
+}
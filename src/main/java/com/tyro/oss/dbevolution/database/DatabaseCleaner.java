@@ -19,7 +19,7 @@ import com.tyro.oss.dbevolution.DatabaseDetails;
 
 public class DatabaseCleaner {
 
-    private final SnapshotAndLiquibaseMigrationStrategy migrator;
+    private final DatabaseCreationStrategy migrator;
     private final DatabaseDetails databaseDetails;
     private final String migrationScriptsFilename;
 
@@ -28,9 +28,22 @@ public class DatabaseCleaner {
     public DatabaseCleaner(DatabaseDetails databaseDetails,
                            String snapshotFilename,
                            String migrationScriptsFilename) {
+        this(databaseDetails, snapshotFilename, migrationScriptsFilename, RestoreOptions.defaultRestoreOptions());
+    }
+
+    public DatabaseCleaner(DatabaseDetails databaseDetails,
+                           String snapshotFilename,
+                           String migrationScriptsFilename,
+                           RestoreOptions restoreOptions) {
+        this(databaseDetails, new SnapshotAndLiquibaseMigrationStrategy(new DatabaseSnapshot(snapshotFilename), restoreOptions), migrationScriptsFilename);
+    }
+
+    public DatabaseCleaner(DatabaseDetails databaseDetails,
+                           DatabaseCreationStrategy migrator,
+                           String migrationScriptsFilename) {
         this.databaseDetails = databaseDetails;
         this.migrationScriptsFilename = migrationScriptsFilename;
-        this.migrator = new SnapshotAndLiquibaseMigrationStrategy(new DatabaseSnapshot(snapshotFilename));
+        this.migrator = migrator;
     }
 
     public void cleanAndMigrateSchemaAndGenesis() {
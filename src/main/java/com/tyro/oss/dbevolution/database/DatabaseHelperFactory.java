@@ -16,6 +16,7 @@
 package com.tyro.oss.dbevolution.database;
 
 import com.tyro.oss.dbevolution.DatabaseDetails;
+import com.tyro.oss.dbevolution.DatabaseUrl;
 import com.tyro.oss.dbevolution.SchemaDetails;
 import org.springframework.core.io.Resource;
 
@@ -27,6 +28,10 @@ public class DatabaseHelperFactory {
         return new MySqlDatabaseHelper(databaseDetails, defaultSchemaResource);
     }
 
+    public static DatabaseHelper newInstance(DatabaseDetails databaseDetails, Resource defaultSchemaResource, RestoreOptions restoreOptions) {
+        return new MySqlDatabaseHelper(databaseDetails, defaultSchemaResource, restoreOptions);
+    }
+
     public static DatabaseHelper newInstance(SchemaDetails schemaDetails, Resource defaultSchemaResource) {
         DatabaseDetails databaseDetails = withDatabaseDetails(
                 schemaDetails.migrationUser(),
@@ -34,6 +39,31 @@ public class DatabaseHelperFactory {
                 schemaDetails.adminUser(),
                 schemaDetails.adminPassword(),
                 schemaDetails.url());
-        return new MySqlDatabaseHelper(databaseDetails, defaultSchemaResource);
+        return newInstance(databaseDetails, defaultSchemaResource, restoreOptions(schemaDetails));
+    }
+
+    public static DatabaseHelper newInstance(SchemaDetails schemaDetails, PooledServer server, Resource defaultSchemaResource) {
+        DatabaseDetails databaseDetails = server.getDatabaseDetails(new DatabaseUrl(schemaDetails.url()).getSchemaName());
+        return newInstance(databaseDetails, defaultSchemaResource, restoreOptions(schemaDetails));
+    }
+
+    public static DatabaseHelper newInstance(SchemaDetails schemaDetails, PooledSchema schema, Resource defaultSchemaResource) {
+        return newInstance(schema.getDatabaseDetails(), defaultSchemaResource, restoreOptions(schemaDetails));
+    }
+
+    public static SchemaPool newSchemaPool(SchemaDetails schemaDetails, String migrationScriptsFilename) {
+        DatabaseSnapshot snapshot = new DatabaseSnapshot(schemaDetails.snapshotScript());
+        DatabaseDetails databaseDetails = newInstance(schemaDetails, snapshot.getSnapshotResource()).getDatabaseDetails();
+        RestoreOptions restoreOptions = restoreOptions(schemaDetails);
+        return new SchemaPool(databaseDetails, snapshot,
+                (details, ignored) -> newInstance(details, snapshot.getSnapshotResource(), restoreOptions).dropAndRecreateDatabaseFromSnapshot(snapshot.getSnapshotResource()),
+                migrationScriptsFilename, schemaDetails.schemaPoolSize(), restoreOptions);
+    }
+
+    private static RestoreOptions restoreOptions(SchemaDetails schemaDetails) {
+        return RestoreOptions.defaultRestoreOptions()
+                .withThreads(schemaDetails.restoreThreads())
+                .withDeferredIndexes(schemaDetails.deferIndexes())
+                .withFastRestore(schemaDetails.fastRestore());
     }
 }
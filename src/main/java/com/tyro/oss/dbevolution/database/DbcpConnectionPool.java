@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.apache.commons.dbcp.DelegatingStatement;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+import static java.lang.String.format;
+
+public class DbcpConnectionPool extends ConnectionPool {
+
+    private static final Log LOG = LogFactory.getLog(DbcpConnectionPool.class);
+
+    private final BasicDataSource dataSource = new BasicDataSource();
+
+    public DbcpConnectionPool(ConnectionPoolSettings settings) {
+        super(settings);
+        dataSource.setUrl(settings.getUrl());
+        dataSource.setUsername(settings.getUsername());
+        dataSource.setPassword(settings.getPassword());
+        dataSource.setDefaultAutoCommit(settings.isDefaultAutoCommit());
+        dataSource.setMaxActive(settings.getMaxSize());
+        dataSource.setMaxIdle(settings.getMaxSize());
+        dataSource.setMinIdle(settings.getMinIdle());
+        dataSource.setMaxWait(settings.getBorrowTimeoutMillis() > 0 ? settings.getBorrowTimeoutMillis() : -1);
+        dataSource.setValidationQuery("SELECT 1");
+        dataSource.setTestWhileIdle(true);
+        dataSource.setTimeBetweenEvictionRunsMillis(30_000);
+        for (Map.Entry<String, String> property : settings.getDriverProperties().entrySet()) {
+            dataSource.addConnectionProperty(property.getKey(), property.getValue());
+        }
+    }
+
+    @Override
+    public int getMaxSize() {
+        return dataSource.getMaxActive();
+    }
+
+    @Override
+    public synchronized void setMaxSize(int maxSize) {
+        dataSource.setMaxActive(maxSize);
+        dataSource.setMaxIdle(maxSize);
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return dataSource.getNumActive();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return dataSource.getNumIdle();
+    }
+
+    @Override
+    public void close() {
+        try {
+            dataSource.close();
+        } catch (SQLException e) {
+            LOG.warn("Error closing connection pool for " + settings.getUrl(), e);
+        }
+    }
+
+    @Override
+    protected DataSource pooledDataSource() {
+        return dataSource;
+    }
+
+    // commons-dbcp 1.2 predates JDBC 4, so its wrappers have no unwrap or isWrapperFor
+    @Override
+    protected <T> T unwrapPooledDataSource(Class<T> iface) throws SQLException {
+        if (iface.isInstance(dataSource)) {
+            return iface.cast(dataSource);
+        }
+        throw new SQLException(format("%s does not wrap %s", dataSource.getClass().getName(), iface.getName()));
+    }
+
+    @Override
+    protected boolean isPooledDataSourceWrapperFor(Class<?> iface) {
+        return iface.isInstance(dataSource);
+    }
+
+    static Statement innermostDelegate(Statement statement) {
+        return statement instanceof DelegatingStatement ? ((DelegatingStatement) statement).getInnermostDelegate() : statement;
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.lang.String.format;
+import static java.util.stream.Collectors.joining;
+import static org.apache.commons.lang3.StringUtils.containsIgnoreCase;
+
+public class DeferredIndexBuilder {
+
+    private static final Log LOG = LogFactory.getLog(DeferredIndexBuilder.class);
+
+    private final Map<String, DeferredDefinitions> deferredDefinitionsByTable = new LinkedHashMap<>();
+    private final int threads;
+
+    public DeferredIndexBuilder(int threads) {
+        this.threads = threads;
+    }
+
+    public String rewrite(String sql) {
+        String[] keywords = SqlStatements.leadingKeywords(sql, 2);
+        if (keywords.length < 2 || !"TABLE".equals(keywords[1])) {
+            return sql;
+        }
+        if ("DROP".equals(keywords[0])) {
+            deferredDefinitionsByTable.remove(tableName(sql));
+            return sql;
+        }
+        if ("CREATE".equals(keywords[0])) {
+            return rewriteCreateTable(sql, tableName(sql));
+        }
+        return sql;
+    }
+
+    public void deferForeignKeys(String createTable) {
+        int bodyStart = createTable.indexOf('(');
+        int bodyEnd = closingParenthesis(createTable, bodyStart);
+        if (bodyStart < 0 || bodyEnd < 0) {
+            return;
+        }
+        DeferredDefinitions deferred = new DeferredDefinitions();
+        for (String definition : splitDefinitions(createTable.substring(bodyStart + 1, bodyEnd))) {
+            if (isForeignKey(SqlStatements.firstKeyword(definition), definition)) {
+                deferred.foreignKeys.add(definition);
+            }
+        }
+        if (!deferred.isEmpty()) {
+            deferredDefinitionsByTable.put(tableName(createTable), deferred);
+        }
+    }
+
+    public void buildDeferredIndexes(DataSource dataSource, String schemaName) throws SQLException {
+        if (deferredDefinitionsByTable.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        List<String> indexStatements = new ArrayList<>();
+        List<String> foreignKeyStatements = new ArrayList<>();
+        deferredDefinitionsByTable.forEach((table, definitions) -> {
+            indexStatements.addAll(definitions.indexStatements(table));
+            foreignKeyStatements.addAll(definitions.foreignKeyStatements(table));
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            executeInParallel(executor, dataSource, schemaName, indexStatements);
+            executeInParallel(executor, dataSource, schemaName, foreignKeyStatements);
+        } finally {
+            executor.shutdownNow();
+        }
+        LOG.info(format("Built %d deferred index and %d foreign key statements for %d tables in %d ms",
+                indexStatements.size(), foreignKeyStatements.size(), deferredDefinitionsByTable.size(), System.currentTimeMillis() - start));
+        deferredDefinitionsByTable.clear();
+    }
+
+    private void executeInParallel(ExecutorService executor, DataSource dataSource, String schemaName, List<String> statements) throws SQLException {
+        List<Future<?>> results = new ArrayList<>();
+        for (String sql : statements) {
+            results.add(executor.submit(() -> {
+                execute(dataSource, schemaName, sql);
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            try {
+                result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while building deferred indexes", e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof SQLException ? (SQLException) e.getCause() : new SQLException(e.getCause());
+            }
+        }
+    }
+
+    private static void execute(DataSource dataSource, String schemaName, String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            connection.setCatalog(schemaName);
+            statement.execute("SET FOREIGN_KEY_CHECKS = 0");
+            try {
+                statement.execute(sql);
+            } catch (SQLException e) {
+                throw new SQLException("Failed to build deferred index: " + sql, e.getSQLState(), e.getErrorCode(), e);
+            } finally {
+                statement.execute("SET FOREIGN_KEY_CHECKS = 1");
+            }
+        }
+    }
+
+    private String rewriteCreateTable(String sql, String table) {
+        int bodyStart = sql.indexOf('(');
+        int bodyEnd = closingParenthesis(sql, bodyStart);
+        if (bodyStart < 0 || bodyEnd < 0) {
+            return sql;
+        }
+
+        List<String> definitions = splitDefinitions(sql.substring(bodyStart + 1, bodyEnd));
+        Set<String> autoIncrementColumns = new HashSet<>();
+        String primaryKeyColumn = null;
+        for (String definition : definitions) {
+            String keyword = SqlStatements.firstKeyword(definition);
+            if ("PRIMARY".equals(keyword)) {
+                primaryKeyColumn = firstIndexedColumn(definition);
+            } else if (!isConstraintOrIndex(keyword) && containsIgnoreCase(definition, "AUTO_INCREMENT")) {
+                autoIncrementColumns.add(SqlStatements.identifierAt(definition, 0));
+            }
+        }
+
+        DeferredDefinitions deferred = new DeferredDefinitions();
+        List<String> kept = new ArrayList<>();
+        for (String definition : definitions) {
+            String keyword = SqlStatements.firstKeyword(definition);
+            if (isForeignKey(keyword, definition)) {
+                deferred.foreignKeys.add(definition);
+            } else if (isSecondaryIndex(keyword, definition) && !isOnlyIndexForAutoIncrement(definition, autoIncrementColumns, primaryKeyColumn)) {
+                deferred.indexes.add(definition);
+            } else {
+                kept.add(definition);
+            }
+        }
+        if (deferred.isEmpty()) {
+            return sql;
+        }
+
+        deferredDefinitionsByTable.put(table, deferred);
+        return sql.substring(0, bodyStart + 1)
+                + "\n  " + String.join(",\n  ", kept) + "\n"
+                + sql.substring(bodyEnd);
+    }
+
+    private static boolean isConstraintOrIndex(String keyword) {
+        return Arrays.asList("PRIMARY", "KEY", "INDEX", "UNIQUE", "FULLTEXT", "SPATIAL", "CONSTRAINT", "FOREIGN", "CHECK").contains(keyword);
+    }
+
+    private static boolean isForeignKey(String keyword, String definition) {
+        return "FOREIGN".equals(keyword) || "CONSTRAINT".equals(keyword) && containsIgnoreCase(definition, "FOREIGN KEY");
+    }
+
+    private static boolean isSecondaryIndex(String keyword, String definition) {
+        return Arrays.asList("KEY", "INDEX", "UNIQUE", "FULLTEXT", "SPATIAL").contains(keyword)
+                || "CONSTRAINT".equals(keyword) && containsIgnoreCase(definition, "UNIQUE");
+    }
+
+    private static boolean isOnlyIndexForAutoIncrement(String definition, Set<String> autoIncrementColumns, String primaryKeyColumn) {
+        String column = firstIndexedColumn(definition);
+        return autoIncrementColumns.contains(column) && !column.equals(primaryKeyColumn);
+    }
+
+    private static String firstIndexedColumn(String definition) {
+        int columnsStart = definition.indexOf('(');
+        return columnsStart < 0 ? "" : SqlStatements.identifierAt(definition, columnsStart + 1);
+    }
+
+    private static String tableName(String sql) {
+        String[] tableKeywords = SqlStatements.leadingKeywords(sql, 6);
+        int skip = 2;
+        while (skip < tableKeywords.length && Arrays.asList("TEMPORARY", "IF", "NOT", "EXISTS").contains(tableKeywords[skip])) {
+            skip++;
+        }
+        return SqlStatements.identifierAfterKeywords(sql, skip);
+    }
+
+    static int closingParenthesis(String sql, int open) {
+        if (open < 0) {
+            return -1;
+        }
+        int depth = 0;
+        char quote = 0;
+        for (int i = open; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote != 0) {
+                if (c == '\\' && quote != '`') {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"' || c == '`') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static List<String> splitDefinitions(String body) {
+        List<String> definitions = new ArrayList<>();
+        int depth = 0;
+        char quote = 0;
+        int start = 0;
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (quote != 0) {
+                if (c == '\\' && quote != '`') {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"' || c == '`') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                definitions.add(body.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        definitions.add(body.substring(start).trim());
+        return definitions;
+    }
+
+    private static class DeferredDefinitions {
+
+        private final List<String> indexes = new ArrayList<>();
+        private final List<String> foreignKeys = new ArrayList<>();
+
+        boolean isEmpty() {
+            return indexes.isEmpty() && foreignKeys.isEmpty();
+        }
+
+        List<String> indexStatements(String table) {
+            List<String> statements = new ArrayList<>();
+            List<String> fullTextIndexes = new ArrayList<>();
+            List<String> otherIndexes = new ArrayList<>();
+            for (String index : indexes) {
+                ("FULLTEXT".equals(SqlStatements.firstKeyword(index)) ? fullTextIndexes : otherIndexes).add(index);
+            }
+            if (!otherIndexes.isEmpty()) {
+                statements.add(alterTable(table, otherIndexes));
+            }
+            for (String fullTextIndex : fullTextIndexes) {
+                statements.add(alterTable(table, Collections.singletonList(fullTextIndex)));
+            }
+            return statements;
+        }
+
+        List<String> foreignKeyStatements(String table) {
+            return foreignKeys.isEmpty() ? Collections.emptyList() : Collections.singletonList(alterTable(table, foreignKeys));
+        }
+
+        private static String alterTable(String table, List<String> definitions) {
+            return "ALTER TABLE `" + table.replace("`", "``") + "` " + definitions.stream().map(definition -> "ADD " + definition).collect(joining(", "));
+        }
+    }
+}
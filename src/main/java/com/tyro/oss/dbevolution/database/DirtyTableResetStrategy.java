@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import com.tyro.oss.dbevolution.DatabaseDetails;
+
+public class DirtyTableResetStrategy implements DatabaseCreationStrategy {
+
+    private final DatabaseSnapshot snapshot;
+    private final DatabaseCreationStrategy templateCreationStrategy;
+    private final RestoreOptions restoreOptions;
+    private DirtyTableTracker dirtyTableTracker;
+
+    public DirtyTableResetStrategy(DatabaseSnapshot snapshot) {
+        this(snapshot, RestoreOptions.defaultRestoreOptions().withThreads(Runtime.getRuntime().availableProcessors()));
+    }
+
+    public DirtyTableResetStrategy(DatabaseSnapshot snapshot, RestoreOptions restoreOptions) {
+        this(snapshot, new SnapshotAndLiquibaseMigrationStrategy(snapshot, restoreOptions), restoreOptions);
+    }
+
+    public DirtyTableResetStrategy(DatabaseSnapshot snapshot, DatabaseCreationStrategy templateCreationStrategy, RestoreOptions restoreOptions) {
+        this.snapshot = snapshot;
+        this.templateCreationStrategy = templateCreationStrategy;
+        this.restoreOptions = restoreOptions;
+    }
+
+    @Override
+    public void createDatabase(DatabaseDetails databaseDetails, String migrationScriptsFilename) throws Exception {
+        MySqlDatabaseHelper databaseHelper = new MySqlDatabaseHelper(databaseDetails, snapshot.getSnapshotResource(), restoreOptions);
+        String templateSchemaName = databaseDetails.getSchemaName() + TemplateSchemaCloningStrategy.TEMPLATE_SUFFIX;
+
+        if (dirtyTableTracker == null) {
+            templateCreationStrategy.createDatabase(databaseDetails, migrationScriptsFilename);
+            databaseHelper.copyDatabaseToTemplate(templateSchemaName);
+            dirtyTableTracker = databaseHelper.createDirtyTableTracker();
+        } else if (!reloadDirtyTables(databaseHelper, templateSchemaName)) {
+            databaseHelper.dropAndRecreateDatabaseFromTemplate(templateSchemaName);
+        }
+        dirtyTableTracker.markClean();
+    }
+
+    private boolean reloadDirtyTables(MySqlDatabaseHelper databaseHelper, String templateSchemaName) throws Exception {
+        if (!dirtyTableTracker.isAvailable()) {
+            return false;
+        }
+        return databaseHelper.reloadTablesFromTemplate(templateSchemaName, dirtyTableTracker.getDirtyTables());
+    }
+}
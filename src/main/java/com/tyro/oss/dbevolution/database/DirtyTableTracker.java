@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static java.util.Collections.emptyMap;
+
+public class DirtyTableTracker {
+
+    private static final Log LOG = LogFactory.getLog(DirtyTableTracker.class);
+
+    private final DataSource dataSource;
+    private final String schemaName;
+
+    private Boolean available;
+    private Map<String, Long> cleanWriteCounts = emptyMap();
+    private Map<String, Set<String>> cascadingChildTables;
+
+    public DirtyTableTracker(DataSource dataSource, String schemaName) {
+        this.dataSource = dataSource;
+        this.schemaName = schemaName;
+    }
+
+    public boolean isAvailable() throws SQLException {
+        if (available == null) {
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet rows = statement.executeQuery(
+                         "SELECT @@performance_schema, (SELECT ENABLED FROM performance_schema.setup_instruments WHERE NAME = 'wait/io/table/sql/handler')")) {
+                available = rows.next() && rows.getBoolean(1) && "YES".equalsIgnoreCase(rows.getString(2));
+            } catch (SQLException e) {
+                LOG.debug("Unable to query performance_schema", e);
+                available = false;
+            }
+            if (!available) {
+                LOG.warn("performance_schema table I/O instrumentation is disabled so every table of " + schemaName + " will be treated as dirty");
+            }
+        }
+        return available;
+    }
+
+    public void markClean() throws SQLException {
+        if (isAvailable()) {
+            cleanWriteCounts = writeCounts();
+        }
+    }
+
+    public Set<String> getDirtyTables() throws SQLException {
+        Set<String> dirtyTables = new TreeSet<>();
+        writeCounts().forEach((table, writes) -> {
+            if (!writes.equals(cleanWriteCounts.getOrDefault(table, 0L))) {
+                dirtyTables.add(table);
+            }
+        });
+        return withCascadingChildTables(dirtyTables);
+    }
+
+    private Map<String, Long> writeCounts() throws SQLException {
+        Map<String, Long> writeCounts = new HashMap<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT OBJECT_NAME, COUNT_INSERT + COUNT_UPDATE + COUNT_DELETE FROM performance_schema.table_io_waits_summary_by_table " +
+                             "WHERE OBJECT_TYPE = 'TABLE' AND OBJECT_SCHEMA = ?")) {
+            statement.setString(1, schemaName);
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    writeCounts.put(rows.getString(1), rows.getLong(2));
+                }
+            }
+        }
+        return writeCounts;
+    }
+
+    private Set<String> withCascadingChildTables(Set<String> dirtyTables) throws SQLException {
+        if (cascadingChildTables == null) {
+            cascadingChildTables = cascadingChildTables();
+        }
+        Deque<String> unvisited = new ArrayDeque<>(dirtyTables);
+        while (!unvisited.isEmpty()) {
+            for (String childTable : cascadingChildTables.getOrDefault(unvisited.pop(), new HashSet<>())) {
+                if (dirtyTables.add(childTable)) {
+                    unvisited.push(childTable);
+                }
+            }
+        }
+        return dirtyTables;
+    }
+
+    private Map<String, Set<String>> cascadingChildTables() throws SQLException {
+        Map<String, Set<String>> childTables = new HashMap<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT REFERENCED_TABLE_NAME, TABLE_NAME FROM information_schema.REFERENTIAL_CONSTRAINTS " +
+                             "WHERE CONSTRAINT_SCHEMA = ? AND (DELETE_RULE <> 'RESTRICT' AND DELETE_RULE <> 'NO ACTION' " +
+                             "OR UPDATE_RULE <> 'RESTRICT' AND UPDATE_RULE <> 'NO ACTION')")) {
+            statement.setString(1, schemaName);
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    childTables.computeIfAbsent(rows.getString(1), table -> new HashSet<>()).add(rows.getString(2));
+                }
+            }
+        }
+        return childTables;
+    }
+}
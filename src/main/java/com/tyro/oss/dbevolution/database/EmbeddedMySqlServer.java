@@ -0,0 +1,352 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import com.tyro.oss.dbevolution.DatabaseDetails;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.tyro.oss.dbevolution.DatabaseDetails.withDatabaseDetails;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class EmbeddedMySqlServer implements AutoCloseable {
+
+    public static final String MYSQLD_PROPERTY = "dbevolution.mysqld";
+    public static final String DATA_ROOT_PROPERTY = "dbevolution.mysqld.dataRoot";
+    public static final String MIGRATION_USER = "dbevolution";
+    public static final String ADMIN_USER = "dbevolution_admin";
+    public static final String PASSWORD = "dbevolution";
+
+    private static final Log LOG = LogFactory.getLog(EmbeddedMySqlServer.class);
+    private static final String HOST = "127.0.0.1";
+    private static final long STARTUP_TIMEOUT_MILLIS = 120_000;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 30_000;
+    private static final int MAX_START_ATTEMPTS = 5;
+    private static final String PORT_IN_USE = "Address already in use";
+    private static final List<String> MYSQLD_NAMES = Arrays.asList("mysqld", "mariadbd");
+    private static final List<String> DEFAULT_MYSQLD_LOCATIONS = Arrays.asList("/usr/sbin/mysqld", "/usr/sbin/mariadbd", "/usr/local/mysql/bin/mysqld", "/usr/local/sbin/mysqld");
+    private static final List<String> INSTALL_DB_NAMES = Arrays.asList("mariadb-install-db", "mysql_install_db");
+
+    private static EmbeddedMySqlServer sharedServer;
+
+    private final File mysqld;
+    private final File baseDirectory;
+    private final boolean mariaDb;
+    private volatile int port;
+    private Process process;
+
+    private EmbeddedMySqlServer(File mysqld, File baseDirectory, boolean mariaDb) {
+        this.mysqld = mysqld;
+        this.baseDirectory = baseDirectory;
+        this.mariaDb = mariaDb;
+    }
+
+    public static synchronized EmbeddedMySqlServer shared() throws CommandExecutionException {
+        if (sharedServer == null) {
+            sharedServer = start(findMysqld(), defaultDataRoot());
+            EmbeddedMySqlServer server = sharedServer;
+            Runtime.getRuntime().addShutdownHook(new Thread(server::close, "embedded-mysqld-shutdown"));
+        }
+        return sharedServer;
+    }
+
+    public static EmbeddedMySqlServer start(File mysqld, File dataRoot) throws CommandExecutionException {
+        long start = System.currentTimeMillis();
+        EmbeddedMySqlServer server;
+        try {
+            String version = new CommandLineHelper().executeCommand(new String[]{mysqld.getAbsolutePath(), "--version"});
+            File baseDirectory = Files.createTempDirectory(dataRoot.toPath(), "dbevolution-mysqld-").toFile();
+            server = new EmbeddedMySqlServer(mysqld, baseDirectory, version.contains("MariaDB"));
+        } catch (IOException e) {
+            throw new CommandExecutionException(e);
+        }
+        try {
+            server.initialize();
+            server.startOnFreePort();
+        } catch (CommandExecutionException e) {
+            server.close();
+            throw e;
+        }
+        LOG.info(format("Started %s on port %d with data in %s in %d ms",
+                server.mariaDb ? "MariaDB" : "MySQL", server.port, server.getDataDirectory(), System.currentTimeMillis() - start));
+        return server;
+    }
+
+    public DatabaseDetails getDatabaseDetails(String schemaName) {
+        String url = format("jdbc:mysql://%s:%d/%s?createDatabaseIfNotExist=true&useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC",
+                HOST, port, schemaName);
+        return withDatabaseDetails(MIGRATION_USER, PASSWORD, ADMIN_USER, PASSWORD, url);
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public boolean isMariaDb() {
+        return mariaDb;
+    }
+
+    public File getDataDirectory() {
+        return new File(baseDirectory, "data");
+    }
+
+    @Override
+    public synchronized void close() {
+        MySqlDatabaseHelper.closeConnectionPools(HOST, port);
+        stopProcess();
+        FileUtils.deleteQuietly(baseDirectory);
+    }
+
+    private synchronized void stopProcess() {
+        if (process != null) {
+            process.destroy();
+            try {
+                if (!process.waitFor(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    LOG.warn(format("mysqld on port %d did not stop within %d ms, killing it", port, SHUTDOWN_TIMEOUT_MILLIS));
+                    process.destroyForcibly().waitFor();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                process.destroyForcibly();
+            }
+            process = null;
+        }
+    }
+
+    static List<String> serverArguments(File mysqld, File baseDirectory, int port, boolean runningAsRoot) {
+        File dataDirectory = new File(baseDirectory, "data");
+        List<String> arguments = new ArrayList<>(Arrays.asList(
+                mysqld.getAbsolutePath(),
+                "--no-defaults",
+                "--datadir=" + dataDirectory.getAbsolutePath(),
+                "--tmpdir=" + new File(baseDirectory, "tmp").getAbsolutePath(),
+                "--socket=" + new File(baseDirectory, "mysqld.sock").getAbsolutePath(),
+                "--pid-file=" + new File(baseDirectory, "mysqld.pid").getAbsolutePath(),
+                "--log-error=" + new File(baseDirectory, "mysqld.err").getAbsolutePath(),
+                "--init-file=" + new File(baseDirectory, "init.sql").getAbsolutePath(),
+                "--port=" + port,
+                "--bind-address=127.0.0.1",
+                "--skip-name-resolve",
+                "--server-id=1",
+                "--log-bin=" + new File(baseDirectory, "binlog").getAbsolutePath(),
+                "--binlog-format=ROW",
+                "--binlog-row-image=FULL",
+                "--max-binlog-size=64M",
+                "--loose-binlog-expire-logs-seconds=3600",
+                "--sync-binlog=0",
+                "--innodb-flush-log-at-trx-commit=0",
+                "--innodb-flush-method=nosync",
+                "--loose-innodb-doublewrite=OFF",
+                "--loose-innodb-use-native-aio=OFF",
+                "--innodb-buffer-pool-size=256M",
+                "--performance-schema=ON",
+                "--loose-performance-schema-instrument=wait/io/table/sql/handler=ON",
+                "--loose-mysqlx=OFF",
+                "--local-infile=1",
+                "--max-allowed-packet=256M",
+                "--character-set-server=utf8mb4"));
+        if (runningAsRoot) {
+            arguments.add("--user=root");
+        }
+        return arguments;
+    }
+
+    static String initScript() {
+        StringBuilder script = new StringBuilder();
+        for (String user : Arrays.asList(MIGRATION_USER, ADMIN_USER)) {
+            script.append(format("CREATE USER IF NOT EXISTS '%s'@'%%' IDENTIFIED BY '%s';\n", user, PASSWORD));
+            script.append(format("GRANT ALL PRIVILEGES ON *.* TO '%s'@'%%' WITH GRANT OPTION;\n", user));
+        }
+        return script.toString();
+    }
+
+    private void initialize() throws CommandExecutionException {
+        File dataDirectory = getDataDirectory();
+        try {
+            FileUtils.forceMkdir(new File(baseDirectory, "tmp"));
+            FileUtils.writeStringToFile(new File(baseDirectory, "init.sql"), initScript(), UTF_8);
+        } catch (IOException e) {
+            throw new CommandExecutionException(e);
+        }
+        List<String> command = new ArrayList<>();
+        if (mariaDb) {
+            command.add(findInstallDb().getAbsolutePath());
+            command.addAll(Arrays.asList("--no-defaults", "--datadir=" + dataDirectory.getAbsolutePath(),
+                    "--basedir=" + mysqld.getAbsoluteFile().getParentFile().getParent(), "--auth-root-authentication-method=normal"));
+        } else {
+            command.addAll(Arrays.asList(mysqld.getAbsolutePath(), "--no-defaults", "--initialize-insecure",
+                    "--datadir=" + dataDirectory.getAbsolutePath(), "--innodb-flush-method=nosync", "--loose-innodb-doublewrite=OFF",
+                    "--loose-innodb-use-native-aio=OFF"));
+        }
+        if (isRunningAsRoot()) {
+            command.add("--user=root");
+        }
+        new CommandLineHelper(STARTUP_TIMEOUT_MILLIS).executeCommand(command.toArray(new String[0]), new File(baseDirectory, "initialize.log"), false);
+    }
+
+    private void startOnFreePort() throws CommandExecutionException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                port = findFreePort();
+            } catch (IOException e) {
+                throw new CommandExecutionException(e);
+            }
+            startProcess();
+            try {
+                awaitReady();
+                return;
+            } catch (CommandExecutionException e) {
+                if (attempt == MAX_START_ATTEMPTS || !readErrorLog().contains(PORT_IN_USE)) {
+                    throw e;
+                }
+                LOG.info(format("Port %d was taken before mysqld could bind to it, retrying on another port", port));
+                stopProcess();
+                FileUtils.deleteQuietly(new File(baseDirectory, "mysqld.err"));
+            }
+        }
+    }
+
+    private synchronized void startProcess() throws CommandExecutionException {
+        try {
+            process = new ProcessBuilder(serverArguments(mysqld, baseDirectory, port, isRunningAsRoot()))
+                    .redirectErrorStream(true)
+                    .redirectOutput(new File(baseDirectory, "mysqld.out"))
+                    .start();
+        } catch (IOException e) {
+            throw new CommandExecutionException(e);
+        }
+    }
+
+    private void awaitReady() throws CommandExecutionException {
+        String url = format("jdbc:mysql://127.0.0.1:%d/?useSSL=false&allowPublicKeyRetrieval=true", port);
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+        SQLException lastError = null;
+        while (System.currentTimeMillis() < deadline) {
+            if (!process.isAlive()) {
+                throw new CommandExecutionException(format("mysqld exited with %d during startup: %s", process.exitValue(), readErrorLog()));
+            }
+            try (Connection ignored = DriverManager.getConnection(url, ADMIN_USER, PASSWORD)) {
+                return;
+            } catch (SQLException e) {
+                lastError = e;
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CommandExecutionException(e);
+            }
+        }
+        throw new CommandExecutionException(format("mysqld did not accept connections within %d ms (%s): %s",
+                STARTUP_TIMEOUT_MILLIS, lastError == null ? "no attempt" : lastError.getMessage(), readErrorLog()));
+    }
+
+    private String readErrorLog() {
+        try {
+            return FileUtils.readFileToString(new File(baseDirectory, "mysqld.err"), UTF_8);
+        } catch (IOException e) {
+            return "no error log";
+        }
+    }
+
+    private File findInstallDb() throws CommandExecutionException {
+        File binDirectory = mysqld.getAbsoluteFile().getParentFile();
+        for (File directory : Arrays.asList(binDirectory, new File(binDirectory.getParentFile(), "bin"), new File(binDirectory.getParentFile(), "scripts"))) {
+            for (String name : INSTALL_DB_NAMES) {
+                File installDb = new File(directory, name);
+                if (installDb.canExecute()) {
+                    return installDb;
+                }
+            }
+        }
+        File installDb = findOnPath(INSTALL_DB_NAMES);
+        if (installDb == null) {
+            throw new CommandExecutionException("Unable to find mariadb-install-db or mysql_install_db next to " + mysqld);
+        }
+        return installDb;
+    }
+
+    static File findMysqld() throws CommandExecutionException {
+        String configured = System.getProperty(MYSQLD_PROPERTY);
+        if (configured != null) {
+            return new File(configured);
+        }
+        File mysqld = findOnPath(MYSQLD_NAMES);
+        if (mysqld != null) {
+            return mysqld;
+        }
+        for (String location : DEFAULT_MYSQLD_LOCATIONS) {
+            if (new File(location).canExecute()) {
+                return new File(location);
+            }
+        }
+        throw new CommandExecutionException(format("Unable to find mysqld or mariadbd; set the %s system property", MYSQLD_PROPERTY));
+    }
+
+    static File defaultDataRoot() {
+        String configured = System.getProperty(DATA_ROOT_PROPERTY);
+        if (configured != null) {
+            return new File(configured);
+        }
+        File sharedMemory = new File("/dev/shm");
+        if (sharedMemory.isDirectory() && sharedMemory.canWrite()) {
+            return sharedMemory;
+        }
+        LOG.warn("/dev/shm is not available, the embedded mysqld data directory will be on disk");
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    private static File findOnPath(List<String> names) {
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return null;
+        }
+        for (String directory : path.split(File.pathSeparator)) {
+            for (String name : names) {
+                File candidate = new File(directory, name);
+                if (candidate.canExecute()) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static boolean isRunningAsRoot() {
+        return "root".equals(System.getProperty("user.name"));
+    }
+}
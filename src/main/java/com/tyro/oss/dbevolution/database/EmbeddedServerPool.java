@@ -0,0 +1,174 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import com.tyro.oss.dbevolution.DatabaseDetails;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static java.lang.String.format;
+
+public class EmbeddedServerPool implements AutoCloseable {
+
+    public static final String SERVERS_PROPERTY = "dbevolution.mysqld.servers";
+
+    private static final Log LOG = LogFactory.getLog(EmbeddedServerPool.class);
+    private static final String SYSTEM_SCHEMAS = "'mysql', 'information_schema', 'performance_schema', 'sys'";
+
+    private static EmbeddedServerPool sharedPool;
+
+    private final File mysqld;
+    private final File dataRoot;
+    private final int size;
+    private final List<PooledServer> servers = new ArrayList<>();
+    private final List<PooledServer> idleServers = new ArrayList<>();
+    private int startingServers;
+    private boolean closed;
+
+    public EmbeddedServerPool(File mysqld, File dataRoot, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Server pool size must be at least 1 but was " + size);
+        }
+        this.mysqld = mysqld;
+        this.dataRoot = dataRoot;
+        this.size = size;
+    }
+
+    public static synchronized EmbeddedServerPool shared() throws CommandExecutionException {
+        if (sharedPool == null) {
+            int size = Integer.getInteger(SERVERS_PROPERTY, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+            sharedPool = new EmbeddedServerPool(EmbeddedMySqlServer.findMysqld(), EmbeddedMySqlServer.defaultDataRoot(), size);
+            EmbeddedServerPool pool = sharedPool;
+            Runtime.getRuntime().addShutdownHook(new Thread(pool::close, "embedded-server-pool-shutdown"));
+        }
+        return sharedPool;
+    }
+
+    public PooledServer lease() throws CommandExecutionException, InterruptedException {
+        PooledServer server = leaseIdleOrReserveStart();
+        if (server != null) {
+            return server;
+        }
+        EmbeddedMySqlServer started;
+        try {
+            started = EmbeddedMySqlServer.start(mysqld, dataRoot);
+        } catch (CommandExecutionException e) {
+            synchronized (this) {
+                startingServers--;
+                notifyAll();
+            }
+            throw e;
+        }
+        synchronized (this) {
+            startingServers--;
+            server = new PooledServer(this, started);
+            servers.add(server);
+            if (closed) {
+                started.close();
+                throw new CommandExecutionException("Server pool is closed");
+            }
+            server.markLeased();
+        }
+        LOG.debug(format("Leased new server on port %d", started.getPort()));
+        return server;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    void release(PooledServer server) {
+        try {
+            dropUserSchemas(server.getServer());
+        } catch (SQLException e) {
+            LOG.warn(format("Failed to reset server on port %d, stopping it", server.getServer().getPort()), e);
+            synchronized (this) {
+                servers.remove(server);
+                notifyAll();
+            }
+            server.getServer().close();
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            idleServers.add(server);
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void close() {
+        List<PooledServer> toStop;
+        synchronized (this) {
+            closed = true;
+            toStop = new ArrayList<>(servers);
+            servers.clear();
+            idleServers.clear();
+            notifyAll();
+        }
+        for (PooledServer server : toStop) {
+            server.getServer().close();
+        }
+    }
+
+    private synchronized PooledServer leaseIdleOrReserveStart() throws CommandExecutionException, InterruptedException {
+        while (true) {
+            if (closed) {
+                throw new CommandExecutionException("Server pool is closed");
+            }
+            if (!idleServers.isEmpty()) {
+                PooledServer server = idleServers.stream().min(Comparator.comparingInt(PooledServer::getLeaseCount)).get();
+                idleServers.remove(server);
+                server.markLeased();
+                LOG.debug(format("Leased server on port %d", server.getServer().getPort()));
+                return server;
+            }
+            if (servers.size() + startingServers < size) {
+                startingServers++;
+                return null;
+            }
+            wait();
+        }
+    }
+
+    private static void dropUserSchemas(EmbeddedMySqlServer server) throws SQLException {
+        DatabaseDetails details = server.getDatabaseDetails("mysql");
+        try (Connection connection = DriverManager.getConnection(details.getUrl(), details.getAdminUser(), details.getAdminPassword());
+             Statement statement = connection.createStatement()) {
+            List<String> schemas = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery("SELECT schema_name FROM information_schema.schemata WHERE schema_name NOT IN (" + SYSTEM_SCHEMAS + ")")) {
+                while (resultSet.next()) {
+                    schemas.add(resultSet.getString(1));
+                }
+            }
+            for (String schema : schemas) {
+                statement.execute("DROP DATABASE `" + schema.replace("`", "``") + "`");
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+public class FastRestoreProfile implements AutoCloseable {
+
+    private static final Log LOG = LogFactory.getLog(FastRestoreProfile.class);
+
+    static final Map<String, String> GLOBAL_SETTINGS = new LinkedHashMap<>();
+    static final Map<String, String> SESSION_SETTINGS = new LinkedHashMap<>();
+
+    static {
+        GLOBAL_SETTINGS.put("innodb_flush_log_at_trx_commit", "2");
+        GLOBAL_SETTINGS.put("sync_binlog", "0");
+        GLOBAL_SETTINGS.put("bulk_insert_buffer_size", String.valueOf(256 * 1024 * 1024));
+        SESSION_SETTINGS.put("sql_log_bin", "0");
+        SESSION_SETTINGS.put("unique_checks", "0");
+        SESSION_SETTINGS.put("foreign_key_checks", "0");
+    }
+
+    private static final Object GLOBAL_LOCK = new Object();
+    private static int activeProfiles;
+    private static Map<String, String> originalGlobalSettings = new LinkedHashMap<>();
+    private static double baselineBytesPerSecond;
+
+    private final DataSource adminDataSource;
+    private final DataSource sessionDataSource;
+    private boolean closed;
+
+    private FastRestoreProfile(DataSource adminDataSource) {
+        this.adminDataSource = adminDataSource;
+        this.sessionDataSource = new SessionDataSource(adminDataSource);
+    }
+
+    public static FastRestoreProfile apply(DataSource adminDataSource) {
+        FastRestoreProfile profile = new FastRestoreProfile(adminDataSource);
+        synchronized (GLOBAL_LOCK) {
+            if (activeProfiles++ == 0) {
+                originalGlobalSettings = profile.applyGlobals();
+            }
+        }
+        return profile;
+    }
+
+    public DataSource getDataSource() {
+        return sessionDataSource;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        synchronized (GLOBAL_LOCK) {
+            if (--activeProfiles == 0) {
+                restoreGlobals(originalGlobalSettings);
+                originalGlobalSettings = new LinkedHashMap<>();
+            }
+        }
+    }
+
+    public static void recordBaseline(SnapshotLoadStatistics statistics) {
+        if (statistics.getBytesRead() > 0 && statistics.getElapsedMillis() > 0) {
+            synchronized (GLOBAL_LOCK) {
+                baselineBytesPerSecond = statistics.getBytesPerSecond();
+            }
+        }
+    }
+
+    public static OptionalLong estimateMillisSaved(SnapshotLoadStatistics statistics) {
+        double baseline;
+        synchronized (GLOBAL_LOCK) {
+            baseline = baselineBytesPerSecond;
+        }
+        if (baseline <= 0) {
+            return OptionalLong.empty();
+        }
+        return OptionalLong.of(Math.round(statistics.getBytesRead() * 1000d / baseline) - statistics.getElapsedMillis());
+    }
+
+    static void resetBaseline() {
+        synchronized (GLOBAL_LOCK) {
+            baselineBytesPerSecond = 0;
+        }
+    }
+
+    private Map<String, String> applyGlobals() {
+        Map<String, String> previous = new LinkedHashMap<>();
+        try (Connection connection = adminDataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            for (Map.Entry<String, String> setting : GLOBAL_SETTINGS.entrySet()) {
+                String value = readVariable(statement, "GLOBAL", setting.getKey());
+                if (value == null || value.equals(setting.getValue())) {
+                    continue;
+                }
+                try {
+                    statement.execute(format("SET GLOBAL %s = %s", setting.getKey(), setting.getValue()));
+                    previous.put(setting.getKey(), value);
+                } catch (SQLException e) {
+                    LOG.info(format("Could not set global %s for fast restore: %s", setting.getKey(), e.getMessage()));
+                }
+            }
+        } catch (SQLException e) {
+            LOG.warn("Could not change global settings for fast restore", e);
+        }
+        return previous;
+    }
+
+    private void restoreGlobals(Map<String, String> originalSettings) {
+        try (Connection connection = adminDataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            for (Map.Entry<String, String> setting : originalSettings.entrySet()) {
+                String value = readVariable(statement, "GLOBAL", setting.getKey());
+                if (!GLOBAL_SETTINGS.get(setting.getKey()).equals(value)) {
+                    LOG.info(format("Leaving global %s = %s because it was changed during fast restore", setting.getKey(), value));
+                    continue;
+                }
+                try {
+                    statement.execute(format("SET GLOBAL %s = %s", setting.getKey(), setting.getValue()));
+                } catch (SQLException e) {
+                    LOG.warn(format("Could not restore global %s to %s after fast restore: %s", setting.getKey(), setting.getValue(), e.getMessage()));
+                }
+            }
+        } catch (SQLException e) {
+            LOG.warn("Could not restore global settings after fast restore", e);
+        }
+    }
+
+    private static Map<String, String> setSession(Connection connection) throws SQLException {
+        Map<String, String> previous = new LinkedHashMap<>();
+        try (Statement statement = connection.createStatement()) {
+            for (Map.Entry<String, String> setting : SESSION_SETTINGS.entrySet()) {
+                String value = readVariable(statement, "SESSION", setting.getKey());
+                if (value == null) {
+                    continue;
+                }
+                try {
+                    statement.execute(format("SET SESSION %s = %s", setting.getKey(), setting.getValue()));
+                    previous.put(setting.getKey(), value);
+                } catch (SQLException e) {
+                    LOG.debug(format("Could not set session %s for fast restore: %s", setting.getKey(), e.getMessage()));
+                }
+            }
+        }
+        return previous;
+    }
+
+    private static void restoreSession(Connection connection, Map<String, String> settings) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (Map.Entry<String, String> setting : settings.entrySet()) {
+                statement.execute(format("SET SESSION %s = %s", setting.getKey(), setting.getValue()));
+            }
+        }
+    }
+
+    private static String readVariable(Statement statement, String scope, String name) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery(format("SELECT @@%s.%s", scope, name))) {
+            return resultSet.next() ? resultSet.getString(1) : null;
+        } catch (SQLException e) {
+            LOG.debug(format("Server has no %s variable %s: %s", scope.toLowerCase(), name, e.getMessage()));
+            return null;
+        }
+    }
+
+    private static class SessionDataSource implements DataSource {
+
+        private final DataSource targetDataSource;
+
+        SessionDataSource(DataSource targetDataSource) {
+            this.targetDataSource = targetDataSource;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return withSessionSettings(targetDataSource.getConnection());
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return withSessionSettings(targetDataSource.getConnection(username, password));
+        }
+
+        private static Connection withSessionSettings(Connection connection) throws SQLException {
+            Map<String, String> previous;
+            try {
+                previous = setSession(connection);
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+            return (Connection) Proxy.newProxyInstance(FastRestoreProfile.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                if (method.getName().equals("close") && !connection.isClosed()) {
+                    try {
+                        restoreSession(connection, previous);
+                    } finally {
+                        connection.close();
+                    }
+                    return null;
+                }
+                try {
+                    return method.invoke(connection, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getTargetException();
+                }
+            });
+        }
+
+        @Override
+        public PrintWriter getLogWriter() throws SQLException {
+            return targetDataSource.getLogWriter();
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) throws SQLException {
+            targetDataSource.setLogWriter(out);
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) throws SQLException {
+            targetDataSource.setLoginTimeout(seconds);
+        }
+
+        @Override
+        public int getLoginTimeout() throws SQLException {
+            return targetDataSource.getLoginTimeout();
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            return targetDataSource.getParentLogger();
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            return iface.isInstance(this) ? iface.cast(this) : targetDataSource.unwrap(iface);
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) throws SQLException {
+            return iface.isInstance(this) || targetDataSource.isWrapperFor(iface);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import java.util.Collection;
+
+public class FullReloadReset implements SchemaReset {
+
+    private final DatabaseCreationStrategy databaseCreationStrategy;
+
+    public FullReloadReset(DatabaseCreationStrategy databaseCreationStrategy) {
+        this.databaseCreationStrategy = databaseCreationStrategy;
+    }
+
+    @Override
+    public boolean canReset(ResetContext context) {
+        return true;
+    }
+
+    @Override
+    public Collection<String> tablesToReset(ResetContext context) {
+        return context.getAllTables();
+    }
+
+    @Override
+    public boolean reset(ResetContext context) throws Exception {
+        databaseCreationStrategy.createDatabase(context.getDatabaseDetails(), context.getMigrationScriptsFilename());
+        return true;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+public class HikariConnectionPool extends ConnectionPool {
+
+    private final HikariDataSource dataSource;
+
+    public HikariConnectionPool(ConnectionPoolSettings settings) {
+        super(settings);
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("dbevolution-" + settings.getUsername());
+        config.setJdbcUrl(settings.getUrl());
+        config.setUsername(settings.getUsername());
+        config.setPassword(settings.getPassword());
+        config.setAutoCommit(settings.isDefaultAutoCommit());
+        config.setMaximumPoolSize(settings.getMaxSize());
+        config.setMinimumIdle(settings.getMinIdle());
+        config.setConnectionTimeout(settings.getBorrowTimeoutMillis());
+        for (Map.Entry<String, String> property : settings.getDriverProperties().entrySet()) {
+            config.addDataSourceProperty(property.getKey(), property.getValue());
+        }
+        dataSource = new HikariDataSource(config);
+    }
+
+    @Override
+    public int getMaxSize() {
+        return dataSource.getHikariConfigMXBean().getMaximumPoolSize();
+    }
+
+    @Override
+    public synchronized void setMaxSize(int maxSize) {
+        dataSource.getHikariConfigMXBean().setMaximumPoolSize(maxSize);
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return dataSource.getHikariPoolMXBean().getActiveConnections();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return dataSource.getHikariPoolMXBean().getIdleConnections();
+    }
+
+    @Override
+    public void close() {
+        dataSource.close();
+    }
+
+    @Override
+    protected DataSource pooledDataSource() {
+        return dataSource;
+    }
+}
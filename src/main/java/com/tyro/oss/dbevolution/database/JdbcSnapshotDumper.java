@@ -0,0 +1,521 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.sql.ResultSet.CONCUR_READ_ONLY;
+import static java.sql.ResultSet.TYPE_FORWARD_ONLY;
+import static java.util.Collections.emptyMap;
+import static java.util.stream.Collectors.joining;
+
+public class JdbcSnapshotDumper implements SnapshotDumper {
+
+    private static final Log LOG = LogFactory.getLog(JdbcSnapshotDumper.class);
+
+    static final int MAX_INSERT_CHARACTERS = 1024 * 1024;
+
+    private static final String DUMP_TIME_ZONE = "+00:00";
+
+    private static final Set<String> NUMERIC_TYPES = new HashSet<>(Arrays.asList(
+            "tinyint", "smallint", "mediumint", "int", "integer", "bigint", "decimal", "numeric", "float", "double", "real"));
+    private static final Set<String> BINARY_TYPES = new HashSet<>(Arrays.asList(
+            "binary", "varbinary", "tinyblob", "blob", "mediumblob", "longblob", "bit",
+            "geometry", "point", "linestring", "polygon", "multipoint", "multilinestring", "multipolygon",
+            "geometrycollection", "geomcollection"));
+
+    private final DataSource dataSource;
+    private final String schemaName;
+    private final int threads;
+
+    public JdbcSnapshotDumper(DataSource dataSource, String schemaName, int threads) {
+        this.dataSource = dataSource;
+        this.schemaName = schemaName;
+        this.threads = threads;
+    }
+
+    @Override
+    public void dumpSchema(OutputStream snapshot, boolean includeData) throws CommandExecutionException {
+        dumpSchema(snapshot, includeData, true);
+    }
+
+    public void streamSchema(OutputStream snapshot) throws CommandExecutionException {
+        dumpSchema(snapshot, true, false);
+    }
+
+    private void dumpSchema(OutputStream snapshot, boolean includeData, boolean dumpTablesInParallel) throws CommandExecutionException {
+        List<File> dataFiles = new ArrayList<>();
+        List<Connection> snapshotConnections = new ArrayList<>();
+        ExecutorService executor = newExecutor();
+        try (Connection connection = dataSource.getConnection()) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(snapshot, UTF_8), 64 * 1024);
+            List<String> tables = new ArrayList<>();
+            List<String> views = new ArrayList<>();
+            listTablesAndViews(connection, schemaName, tables, views);
+            Map<String, Future<File>> tableData = includeData && dumpTablesInParallel
+                    ? dumpTableData(executor, connection, tables, dataFiles, snapshotConnections, JdbcSnapshotDumper::writeInserts)
+                    : emptyMap();
+            Connection dataConnection = includeData && !dumpTablesInParallel
+                    ? openConsistentSnapshots(connection, 1, snapshotConnections).get(0)
+                    : connection;
+
+            writeHeader(writer);
+            for (String table : tables) {
+                writeCreateTable(connection, table, writer);
+                if (includeData && dumpTablesInParallel) {
+                    writer.flush();
+                    Files.copy(tableData.get(table).get().toPath(), snapshot);
+                } else if (includeData) {
+                    dumpRowsInDumpTimeZone(dataConnection, table, writer);
+                }
+            }
+            writeViewsAndTriggers(connection, views, writer);
+            writeFooter(writer);
+            writer.flush();
+        } catch (SQLException | IOException | ExecutionException e) {
+            LOG.error("Error dumping schema " + schemaName, e);
+            throw new CommandExecutionException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommandExecutionException(e);
+        } finally {
+            executor.shutdownNow();
+            endConsistentSnapshots(snapshotConnections);
+            dataFiles.forEach(File::delete);
+        }
+    }
+
+    @Override
+    public void dumpTablePrivileges(OutputStream snapshot) throws CommandExecutionException {
+        try (Connection connection = dataSource.getConnection()) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(snapshot, UTF_8), 64 * 1024);
+            StringBuilder condition = new StringBuilder("Db = ");
+            appendString(condition, schemaName);
+            dumpRows(connection, "mysql", "tables_priv", condition.toString(),
+                    (table, columns, rows, output) -> writeRows("REPLACE", table, columns, rows, output), writer);
+            writer.flush();
+        } catch (SQLException | IOException e) {
+            LOG.error("Error dumping table privileges for " + schemaName, e);
+            throw new CommandExecutionException(e);
+        }
+    }
+
+    ExecutorService newExecutor() {
+        return Executors.newFixedThreadPool(threads, new DumperThreadFactory());
+    }
+
+    static void listTablesAndViews(Connection connection, String schema, List<String> tables, List<String> views) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SHOW FULL TABLES FROM " + quoteIdentifier(schema))) {
+            while (rows.next()) {
+                if ("VIEW".equalsIgnoreCase(rows.getString(2))) {
+                    views.add(rows.getString(1));
+                } else {
+                    tables.add(rows.getString(1));
+                }
+            }
+        }
+    }
+
+    void writeHeader(Writer writer) throws IOException {
+        writer.write("-- Snapshot of " + schemaName + "\n");
+        writer.write("SET NAMES utf8mb4;\n");
+        writer.write("SET @OLD_TIME_ZONE=@@TIME_ZONE, TIME_ZONE='" + DUMP_TIME_ZONE + "';\n");
+        writer.write("SET @OLD_UNIQUE_CHECKS=@@UNIQUE_CHECKS, UNIQUE_CHECKS=0;\n");
+        writer.write("SET @OLD_FOREIGN_KEY_CHECKS=@@FOREIGN_KEY_CHECKS, FOREIGN_KEY_CHECKS=0;\n");
+        writer.write("SET @OLD_SQL_MODE=@@SQL_MODE, SQL_MODE='NO_AUTO_VALUE_ON_ZERO';\n\n");
+    }
+
+    void writeFooter(Writer writer) throws IOException {
+        writer.write("SET SQL_MODE=@OLD_SQL_MODE;\n");
+        writer.write("SET FOREIGN_KEY_CHECKS=@OLD_FOREIGN_KEY_CHECKS;\n");
+        writer.write("SET UNIQUE_CHECKS=@OLD_UNIQUE_CHECKS;\n");
+        writer.write("SET TIME_ZONE=@OLD_TIME_ZONE;\n");
+    }
+
+    void writeCreateTable(Connection connection, String table, Writer writer) throws SQLException, IOException {
+        writer.write("DROP TABLE IF EXISTS " + quoteIdentifier(table) + ";\n");
+        writer.write(showCreate(connection, "TABLE", table, 2) + ";\n\n");
+    }
+
+    void writeViewsAndTriggers(Connection connection, List<String> views, Writer writer) throws SQLException, IOException {
+        for (String view : orderByDependency(showCreateViews(connection, views))) {
+            writer.write(view + ";\n\n");
+        }
+        writeTriggers(connection, writer);
+    }
+
+    Map<String, Future<File>> dumpTableData(ExecutorService executor, Connection connection, List<String> tables, List<File> dataFiles,
+                                            List<Connection> snapshotConnections, RowFormat rowFormat) throws SQLException, IOException {
+        BlockingQueue<Connection> idleConnections = new LinkedBlockingQueue<>(
+                openConsistentSnapshots(connection, Math.min(threads, tables.size()), snapshotConnections));
+        Map<String, Future<File>> tableData = new LinkedHashMap<>();
+        for (String table : tables) {
+            File dataFile = File.createTempFile("dbevolution.dump.", ".tmp");
+            dataFiles.add(dataFile);
+            tableData.put(table, executor.submit(() -> {
+                Connection snapshotConnection = idleConnections.take();
+                try {
+                    return dumpTableData(snapshotConnection, table, dataFile, rowFormat);
+                } finally {
+                    idleConnections.add(snapshotConnection);
+                }
+            }));
+        }
+        return tableData;
+    }
+
+    static void endConsistentSnapshots(List<Connection> snapshotConnections) {
+        for (Connection snapshotConnection : snapshotConnections) {
+            try (Statement statement = snapshotConnection.createStatement()) {
+                statement.execute("COMMIT");
+            } catch (SQLException e) {
+                LOG.debug("Unable to end consistent snapshot", e);
+            }
+            try {
+                snapshotConnection.close();
+            } catch (SQLException e) {
+                LOG.debug("Unable to close snapshot connection", e);
+            }
+        }
+        snapshotConnections.clear();
+    }
+
+    private List<Connection> openConsistentSnapshots(Connection connection, int count, List<Connection> snapshotConnections) throws SQLException {
+        List<Connection> opened = new ArrayList<>();
+        boolean locked = count > 1 && lockTablesForSnapshot(connection);
+        try {
+            for (int i = 0; i < count; i++) {
+                Connection snapshotConnection = dataSource.getConnection();
+                snapshotConnections.add(snapshotConnection);
+                opened.add(snapshotConnection);
+                startConsistentSnapshot(snapshotConnection);
+            }
+        } finally {
+            if (locked) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("UNLOCK TABLES");
+                }
+            }
+        }
+        return opened;
+    }
+
+    private boolean lockTablesForSnapshot(Connection connection) {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("FLUSH TABLES WITH READ LOCK");
+            return true;
+        } catch (SQLException e) {
+            LOG.warn(format("Unable to lock tables while starting the dump of %s, tables written during the dump may not match each other", schemaName), e);
+            return false;
+        }
+    }
+
+    private static void startConsistentSnapshot(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+            statement.execute("START TRANSACTION WITH CONSISTENT SNAPSHOT");
+        }
+    }
+
+    private String showCreate(Connection connection, String objectType, String name, int column) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SHOW CREATE " + objectType + " " + quoteIdentifier(schemaName) + "." + quoteIdentifier(name))) {
+            if (!rows.next()) {
+                throw new SQLException(format("Unable to read definition of %s %s.%s", objectType, schemaName, name));
+            }
+            return rows.getString(column);
+        }
+    }
+
+    private Map<String, String> showCreateViews(Connection connection, List<String> views) throws SQLException {
+        Map<String, String> definitions = new LinkedHashMap<>();
+        for (String view : views) {
+            definitions.put(view, "DROP VIEW IF EXISTS " + quoteIdentifier(view) + ";\n" + showCreate(connection, "VIEW", view, 2));
+        }
+        return definitions;
+    }
+
+    private void writeTriggers(Connection connection, Writer writer) throws SQLException, IOException {
+        List<String> triggers = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SHOW TRIGGERS FROM " + quoteIdentifier(schemaName))) {
+            while (rows.next()) {
+                triggers.add(rows.getString("Trigger"));
+            }
+        }
+        for (String trigger : triggers) {
+            writer.write("DELIMITER ;;\n");
+            writer.write(showCreate(connection, "TRIGGER", trigger, 3) + " ;;\n");
+            writer.write("DELIMITER ;\n\n");
+        }
+    }
+
+    private File dumpTableData(Connection connection, String table, File dataFile, RowFormat rowFormat) throws SQLException, IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(dataFile), UTF_8), 64 * 1024)) {
+            String sessionTimeZone = setTimeZone(connection, DUMP_TIME_ZONE);
+            try {
+                dumpRows(connection, schemaName, table, null, rowFormat, writer);
+            } finally {
+                setTimeZone(connection, sessionTimeZone);
+            }
+        }
+        return dataFile;
+    }
+
+    private void dumpRowsInDumpTimeZone(Connection connection, String table, Writer writer) throws SQLException, IOException {
+        String sessionTimeZone = setTimeZone(connection, DUMP_TIME_ZONE);
+        try {
+            dumpRows(connection, schemaName, table, null, JdbcSnapshotDumper::writeInserts, writer);
+        } finally {
+            setTimeZone(connection, sessionTimeZone);
+        }
+    }
+
+    private static String setTimeZone(Connection connection, String timeZone) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            String previousTimeZone;
+            try (ResultSet rows = statement.executeQuery("SELECT @@SESSION.TIME_ZONE")) {
+                rows.next();
+                previousTimeZone = rows.getString(1);
+            }
+            StringBuilder setTimeZone = new StringBuilder("SET TIME_ZONE = ");
+            appendString(setTimeZone, timeZone);
+            statement.execute(setTimeZone.toString());
+            return previousTimeZone;
+        }
+    }
+
+    static List<DumpedColumn> insertableColumns(Connection connection, String schema, String table) throws SQLException {
+        List<DumpedColumn> columns = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT COLUMN_NAME, DATA_TYPE FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ? " +
+                        "AND EXTRA NOT LIKE '%VIRTUAL GENERATED%' AND EXTRA NOT LIKE '%STORED GENERATED%' ORDER BY ORDINAL_POSITION")) {
+            statement.setString(1, schema);
+            statement.setString(2, table);
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    columns.add(new DumpedColumn(rows.getString(1), rows.getString(2).toLowerCase(Locale.ROOT)));
+                }
+            }
+        }
+        return columns;
+    }
+
+    private static void dumpRows(Connection connection, String schema, String table, String condition, RowFormat rowFormat, Writer writer) throws SQLException, IOException {
+        List<DumpedColumn> columns = insertableColumns(connection, schema, table);
+        if (columns.isEmpty()) {
+            return;
+        }
+
+        String query = "SELECT " + columnList(columns) + " FROM " + quoteIdentifier(schema) + "." + quoteIdentifier(table)
+                + (condition == null ? "" : " WHERE " + condition);
+        try (Statement statement = connection.createStatement(TYPE_FORWARD_ONLY, CONCUR_READ_ONLY)) {
+            statement.setFetchSize(Integer.MIN_VALUE);
+            try (ResultSet rows = statement.executeQuery(query)) {
+                rowFormat.writeRows(table, columns, rows, writer);
+            }
+        }
+    }
+
+    private static void writeInserts(String table, List<DumpedColumn> columns, ResultSet rows, Writer writer) throws SQLException, IOException {
+        writeRows("INSERT", table, columns, rows, writer);
+    }
+
+    private static void writeRows(String verb, String table, List<DumpedColumn> columns, ResultSet rows, Writer writer) throws SQLException, IOException {
+        String insertPrefix = verb + " INTO " + quoteIdentifier(table) + " (" + columnList(columns) + ") VALUES ";
+        StringBuilder statement = new StringBuilder();
+        while (rows.next()) {
+            statement.append(statement.length() == 0 ? insertPrefix : ",").append('(');
+            for (int column = 1; column <= columns.size(); column++) {
+                if (column > 1) {
+                    statement.append(',');
+                }
+                appendValue(statement, rows, column, columns.get(column - 1));
+            }
+            statement.append(')');
+            if (statement.length() >= MAX_INSERT_CHARACTERS) {
+                writer.write(statement.append(";\n").toString());
+                statement.setLength(0);
+            }
+        }
+        if (statement.length() > 0) {
+            writer.write(statement.append(";\n").toString());
+        }
+    }
+
+    static String columnList(List<DumpedColumn> columns) {
+        return columns.stream().map(column -> quoteIdentifier(column.getName())).collect(joining(","));
+    }
+
+    private static void appendValue(StringBuilder statement, ResultSet rows, int column, DumpedColumn dumpedColumn) throws SQLException {
+        if (dumpedColumn.isBinary()) {
+            byte[] value = rows.getBytes(column);
+            if (value == null) {
+                statement.append("NULL");
+            } else if (value.length == 0) {
+                statement.append("''");
+            } else {
+                appendHex(statement, value);
+            }
+        } else {
+            String value = rows.getString(column);
+            if (value == null) {
+                statement.append("NULL");
+            } else if (dumpedColumn.isNumeric()) {
+                statement.append(value);
+            } else {
+                appendString(statement, value);
+            }
+        }
+    }
+
+    static void appendHex(StringBuilder statement, byte[] value) {
+        appendHexDigits(statement.append("0x"), value);
+    }
+
+    static void appendHexDigits(StringBuilder builder, byte[] value) {
+        for (byte b : value) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+    }
+
+    static void appendString(StringBuilder statement, String value) {
+        statement.append('\'');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\0':
+                    statement.append("\\0");
+                    break;
+                case '\n':
+                    statement.append("\\n");
+                    break;
+                case '\r':
+                    statement.append("\\r");
+                    break;
+                case '\u001a':
+                    statement.append("\\Z");
+                    break;
+                case '\'':
+                    statement.append("\\'");
+                    break;
+                case '\\':
+                    statement.append("\\\\");
+                    break;
+                default:
+                    statement.append(c);
+            }
+        }
+        statement.append('\'');
+    }
+
+    static String quoteIdentifier(String identifier) {
+        return "`" + identifier.replace("`", "``") + "`";
+    }
+
+    static List<String> orderByDependency(Map<String, String> viewDefinitions) {
+        List<String> ordered = new ArrayList<>();
+        Map<String, String> remaining = new LinkedHashMap<>(viewDefinitions);
+        while (!remaining.isEmpty()) {
+            String next = remaining.keySet().stream()
+                    .filter(view -> remaining.keySet().stream()
+                            .noneMatch(other -> !other.equals(view) && remaining.get(view).contains(quoteIdentifier(other))))
+                    .findFirst()
+                    .orElse(remaining.keySet().iterator().next());
+            ordered.add(remaining.remove(next));
+        }
+        return ordered;
+    }
+
+    interface RowFormat {
+
+        void writeRows(String table, List<DumpedColumn> columns, ResultSet rows, Writer writer) throws SQLException, IOException;
+    }
+
+    static class DumpedColumn {
+
+        private final String name;
+        private final String dataType;
+
+        DumpedColumn(String name, String dataType) {
+            this.name = name;
+            this.dataType = dataType;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        boolean isBinary() {
+            return BINARY_TYPES.contains(dataType);
+        }
+
+        boolean isBit() {
+            return "bit".equals(dataType);
+        }
+
+        boolean isNumeric() {
+            return NUMERIC_TYPES.contains(dataType);
+        }
+    }
+
+    private static class DumperThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "snapshot-dumper-" + THREAD_NUMBER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import com.tyro.oss.dbevolution.WorkerSchemaSuffix;
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.exception.LiquibaseException;
+import liquibase.parser.ChangeLogParserFactory;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import liquibase.resource.ResourceAccessor;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.core.io.Resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static java.lang.Boolean.parseBoolean;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+public class MigratedSnapshotCache {
+
+    private static final Log LOG = LogFactory.getLog(MigratedSnapshotCache.class);
+
+    public static final String CACHE_DIRECTORY_PROPERTY = "dbevolution.cache.dir";
+    public static final String CACHE_ENABLED_PROPERTY = "dbevolution.cache.enabled";
+    public static final String INCREMENTAL_MIGRATION_PROPERTY = "dbevolution.cache.incremental";
+
+    private static final String SNAPSHOT_EXTENSION = ".sql" + SnapshotCompression.GZIP.getExtension();
+    private static final String MANIFEST_EXTENSION = ".changesets";
+    private static final String SCHEMA_PREFIX = "schema:";
+    private static final int MAX_CACHED_SNAPSHOTS = 10;
+    private static final long EVICTION_GRACE_MILLIS = 10 * 60 * 1000;
+
+    private final File cacheDirectory;
+    private final boolean enabled;
+    private final boolean incremental;
+
+    public MigratedSnapshotCache(File cacheDirectory, boolean enabled, boolean incremental) {
+        this.cacheDirectory = cacheDirectory;
+        this.enabled = enabled;
+        this.incremental = incremental;
+    }
+
+    public static MigratedSnapshotCache defaultCache() {
+        return new MigratedSnapshotCache(
+                new File(baseCacheDirectory(), "migrated"),
+                parseBoolean(System.getProperty(CACHE_ENABLED_PROPERTY, "true")),
+                parseBoolean(System.getProperty(INCREMENTAL_MIGRATION_PROPERTY, "true")));
+    }
+
+    static File baseCacheDirectory() {
+        return new File(System.getProperty(CACHE_DIRECTORY_PROPERTY, new File(System.getProperty("java.io.tmpdir"), "dbevolution").getPath()));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public MigrationFingerprint fingerprint(Resource baseSnapshot, String migrationScriptsFilename, String schemaName) throws IOException, LiquibaseException {
+        MessageDigest digest = MigrationFingerprint.sha256();
+        digest.update(WorkerSchemaSuffix.unsuffixedSchemaName(schemaName).getBytes(UTF_8));
+        try (InputStream snapshot = new DigestInputStream(SnapshotExtractionCache.defaultCache().open(baseSnapshot), digest)) {
+            byte[] buffer = new byte[64 * 1024];
+            while (snapshot.read(buffer) != -1) {
+                // reading updates the digest
+            }
+        }
+        return new MigrationFingerprint(MigrationFingerprint.hex(digest.digest()), changeSetSignatures(migrationScriptsFilename), schemaName);
+    }
+
+    public File find(MigrationFingerprint fingerprint) {
+        if (!enabled || fingerprint == null) {
+            return null;
+        }
+        File cachedSnapshot = snapshotFile(fingerprint.getKey());
+        if (!markUsed(cachedSnapshot)) {
+            return null;
+        }
+        LOG.info("Using cached migrated snapshot " + cachedSnapshot);
+        return cachedSnapshot;
+    }
+
+    public boolean markUsed(File cachedSnapshot) {
+        return cachedSnapshot.setLastModified(System.currentTimeMillis()) && cachedSnapshot.isFile();
+    }
+
+    public String schemaNameOf(File cachedSnapshot) throws IOException {
+        String name = cachedSnapshot.getName();
+        File manifest = manifestFile(name.substring(0, name.length() - SNAPSHOT_EXTENSION.length()));
+        try {
+            return readManifest(manifest).getSchemaName();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    public File findPartiallyMigrated(MigrationFingerprint fingerprint) throws IOException {
+        if (!enabled || !incremental || fingerprint == null) {
+            return null;
+        }
+        File[] manifests = cacheDirectory.listFiles((directory, name) -> name.endsWith(MANIFEST_EXTENSION));
+        if (manifests == null) {
+            return null;
+        }
+        File bestSnapshot = null;
+        int mostChangeSetsApplied = -1;
+        for (File manifest : manifests) {
+            MigrationFingerprint previous;
+            try {
+                previous = readManifest(manifest);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            File snapshot = snapshotFile(previous.getKey());
+            if (fingerprint.isIncrementalUpdateOf(previous) && snapshot.isFile() && previous.getChangeSetSignatures().size() > mostChangeSetsApplied) {
+                bestSnapshot = snapshot;
+                mostChangeSetsApplied = previous.getChangeSetSignatures().size();
+            }
+        }
+        if (bestSnapshot != null && !markUsed(bestSnapshot)) {
+            return null;
+        }
+        if (bestSnapshot != null) {
+            LOG.info(format("Using cached snapshot %s with %d of %d change sets already applied",
+                    bestSnapshot, mostChangeSetsApplied, fingerprint.getChangeSetSignatures().size()));
+        }
+        return bestSnapshot;
+    }
+
+    public File store(MigrationFingerprint fingerprint, SnapshotWriter writer) throws Exception {
+        if (!enabled || fingerprint == null) {
+            File migratedSnapshot = File.createTempFile("migrated.snapshot.", SNAPSHOT_EXTENSION);
+            migratedSnapshot.deleteOnExit();
+            writer.writeTo(migratedSnapshot);
+            return migratedSnapshot;
+        }
+
+        if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+            throw new IOException("Unable to create migrated snapshot cache directory " + cacheDirectory);
+        }
+        String cacheKey = fingerprint.getKey();
+        File partialSnapshot = File.createTempFile(cacheKey, ".partial" + SNAPSHOT_EXTENSION, cacheDirectory);
+        File partialManifest = File.createTempFile(cacheKey, ".partial", cacheDirectory);
+        try {
+            writer.writeTo(partialSnapshot);
+            writeManifest(partialManifest, fingerprint);
+            File cachedSnapshot = snapshotFile(cacheKey);
+            Files.move(partialSnapshot.toPath(), cachedSnapshot.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+            Files.move(partialManifest.toPath(), manifestFile(cacheKey).toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+            removeLeastRecentlyUsedSnapshots();
+            return cachedSnapshot;
+        } finally {
+            Files.deleteIfExists(partialSnapshot.toPath());
+            Files.deleteIfExists(partialManifest.toPath());
+        }
+    }
+
+    static List<String> changeSetSignatures(String migrationScriptsFilename) throws LiquibaseException {
+        ResourceAccessor resourceAccessor = new ClassLoaderResourceAccessor();
+        DatabaseChangeLog changeLog = ChangeLogParserFactory.getInstance()
+                .getParser(migrationScriptsFilename, resourceAccessor)
+                .parse(migrationScriptsFilename, new ChangeLogParameters(), resourceAccessor);
+        List<String> signatures = new ArrayList<>();
+        for (ChangeSet changeSet : changeLog.getChangeSets()) {
+            signatures.add(changeSet.getFilePath() + "::" + changeSet.getId() + "::" + changeSet.getAuthor() + "::" + changeSet.generateCheckSum()
+                    + (changeSet.isAlwaysRun() ? MigrationFingerprint.RUN_ALWAYS_MARKER : ""));
+        }
+        return signatures;
+    }
+
+    private static void writeManifest(File manifest, MigrationFingerprint fingerprint) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(fingerprint.getBaseSnapshotHash());
+        if (fingerprint.getSchemaName() != null) {
+            lines.add(SCHEMA_PREFIX + fingerprint.getSchemaName());
+        }
+        lines.addAll(fingerprint.getChangeSetSignatures());
+        Files.write(manifest.toPath(), lines, UTF_8);
+    }
+
+    private static MigrationFingerprint readManifest(File manifest) throws IOException {
+        List<String> lines = Files.readAllLines(manifest.toPath(), UTF_8);
+        if (lines.isEmpty()) {
+            return new MigrationFingerprint("", lines);
+        }
+        int firstChangeSet = 1;
+        String schemaName = null;
+        if (lines.size() > 1 && lines.get(1).startsWith(SCHEMA_PREFIX)) {
+            schemaName = lines.get(1).substring(SCHEMA_PREFIX.length());
+            firstChangeSet = 2;
+        }
+        return new MigrationFingerprint(lines.get(0), new ArrayList<>(lines.subList(firstChangeSet, lines.size())), schemaName);
+    }
+
+    private File snapshotFile(String cacheKey) {
+        return new File(cacheDirectory, cacheKey + SNAPSHOT_EXTENSION);
+    }
+
+    private File manifestFile(String cacheKey) {
+        return new File(cacheDirectory, cacheKey + MANIFEST_EXTENSION);
+    }
+
+    private void removeLeastRecentlyUsedSnapshots() throws IOException {
+        File[] snapshots = cacheDirectory.listFiles((directory, name) -> name.endsWith(SNAPSHOT_EXTENSION) && !name.contains(".partial"));
+        if (snapshots == null || snapshots.length <= MAX_CACHED_SNAPSHOTS) {
+            return;
+        }
+        Arrays.sort(snapshots, Comparator.comparingLong(File::lastModified).reversed());
+        for (int i = MAX_CACHED_SNAPSHOTS; i < snapshots.length; i++) {
+            if (System.currentTimeMillis() - snapshots[i].lastModified() < EVICTION_GRACE_MILLIS) {
+                continue;
+            }
+            LOG.debug("Removing least recently used migrated snapshot " + snapshots[i]);
+            String cacheKey = snapshots[i].getName().substring(0, snapshots[i].getName().length() - SNAPSHOT_EXTENSION.length());
+            Files.deleteIfExists(manifestFile(cacheKey).toPath());
+            Files.deleteIfExists(snapshots[i].toPath());
+        }
+    }
+
+    public interface SnapshotWriter {
+        void writeTo(File snapshotFile) throws Exception;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.unmodifiableList;
+
+public class MigrationFingerprint {
+
+    static final String RUN_ALWAYS_MARKER = "::runAlways";
+
+    private final String baseSnapshotHash;
+    private final List<String> changeSetSignatures;
+    private final String schemaName;
+    private final String key;
+
+    MigrationFingerprint(String baseSnapshotHash, List<String> changeSetSignatures) {
+        this(baseSnapshotHash, changeSetSignatures, null);
+    }
+
+    MigrationFingerprint(String baseSnapshotHash, List<String> changeSetSignatures, String schemaName) {
+        this.baseSnapshotHash = baseSnapshotHash;
+        this.changeSetSignatures = unmodifiableList(changeSetSignatures);
+        this.schemaName = schemaName;
+        this.key = computeKey(baseSnapshotHash, changeSetSignatures);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getBaseSnapshotHash() {
+        return baseSnapshotHash;
+    }
+
+    public List<String> getChangeSetSignatures() {
+        return changeSetSignatures;
+    }
+
+    public String getSchemaName() {
+        return schemaName;
+    }
+
+    public boolean isIncrementalUpdateOf(MigrationFingerprint previous) {
+        List<String> previousSignatures = previous.changeSetSignatures;
+        return baseSnapshotHash.equals(previous.baseSnapshotHash)
+                && previousSignatures.size() < changeSetSignatures.size()
+                && changeSetSignatures.subList(0, previousSignatures.size()).equals(previousSignatures)
+                && previousSignatures.stream().noneMatch(signature -> signature.endsWith(RUN_ALWAYS_MARKER));
+    }
+
+    static String hex(byte[] digest) {
+        return format("%0" + digest.length * 2 + "x", new BigInteger(1, digest));
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String computeKey(String baseSnapshotHash, List<String> changeSetSignatures) {
+        MessageDigest digest = sha256();
+        updateWithLength(digest, baseSnapshotHash);
+        for (String signature : changeSetSignatures) {
+            updateWithLength(digest, signature);
+        }
+        return hex(digest.digest());
+    }
+
+    private static void updateWithLength(MessageDigest digest, String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+}
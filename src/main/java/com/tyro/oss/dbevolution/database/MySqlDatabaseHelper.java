@@ -16,36 +16,56 @@
 package com.tyro.oss.dbevolution.database;
 
 import com.tyro.oss.dbevolution.DatabaseDetails;
-import org.apache.commons.dbcp.BasicDataSource;
-import org.apache.commons.io.IOUtils;
+import com.tyro.oss.dbevolution.DatabaseUrl;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.ibatis.jdbc.ScriptRunner;
 import org.springframework.core.io.Resource;
 
 import javax.sql.DataSource;
 import java.io.*;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class MySqlDatabaseHelper implements DatabaseHelper {
 
+    public static final String SNAPSHOT_DUMPER_PROPERTY = "dbevolution.snapshot.dumper";
+
     private static final Log LOG = LogFactory.getLog(MySqlDatabaseHelper.class);
 
-    private static BasicDataSource migrationDataSource;
-    private static BasicDataSource adminDataSource;
+    private static final Map<String, ConnectionPool> MIGRATION_POOLS = new ConcurrentHashMap<>();
+    private static final Map<String, ConnectionPool> ADMIN_POOLS = new ConcurrentHashMap<>();
 
     private final DatabaseDetails databaseDetails;
     private final Resource defaultSchemaResource;
     private final CommandLineHelper commandLineHelper;
-    private Connection connection;
+    private final RestoreOptions restoreOptions;
+    private final ThreadLocal<Connection> threadConnection = new ThreadLocal<>();
+    private final Set<Connection> openConnections = ConcurrentHashMap.newKeySet();
+    private volatile SnapshotLoadStatistics lastSnapshotLoadStatistics;
 
     public MySqlDatabaseHelper(DatabaseDetails databaseDetails, Resource defaultSchemaResource) {
+        this(databaseDetails, defaultSchemaResource, RestoreOptions.defaultRestoreOptions());
+    }
+
+    public MySqlDatabaseHelper(DatabaseDetails databaseDetails, Resource defaultSchemaResource, RestoreOptions restoreOptions) {
         this.databaseDetails = databaseDetails;
         this.defaultSchemaResource = defaultSchemaResource;
         this.commandLineHelper = new CommandLineHelper();
+        this.restoreOptions = restoreOptions;
     }
 
     @Override
@@ -60,30 +80,41 @@ public class MySqlDatabaseHelper implements DatabaseHelper {
 
     @Override
     public DataSource getDataSource() {
-        if (migrationDataSource == null) {
-            migrationDataSource = new BasicDataSource();
-            migrationDataSource.setUrl(getUrl());
-            migrationDataSource.setUsername(databaseDetails.getMigrationUser());
-            migrationDataSource.setPassword(databaseDetails.getMigrationPassword());
-            migrationDataSource.setDefaultAutoCommit(false);
-            migrationDataSource.setMaxIdle(10);
-        }
-        return migrationDataSource;
+        return getMigrationPool().getDataSource();
     }
 
     @Override
     public Connection getConnection() throws SQLException {
+        Connection connection = threadConnection.get();
         if (connection == null || connection.isClosed()) {
-            connection = getDataSource().getConnection();
+            if (connection != null) {
+                openConnections.remove(connection);
+            }
+            ConnectionPool migrationPool = getMigrationPool();
+            connection = migrationPool.getDataSource().getConnection();
+            migrationPool.exemptFromLeakDetection(connection);
+            openConnections.add(connection);
+            threadConnection.set(connection);
         }
         return connection;
     }
 
     @Override
     public void closeConnection() throws SQLException {
-        if (connection != null && !connection.isClosed()) {
-            connection.close();
-            connection = null;
+        threadConnection.remove();
+        SQLException failure = null;
+        for (Connection connection : openConnections) {
+            openConnections.remove(connection);
+            try {
+                if (!connection.isClosed()) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
         }
     }
 
@@ -102,67 +133,174 @@ public class MySqlDatabaseHelper implements DatabaseHelper {
 
     @Override
     public void dropAndRecreateDatabaseFromSnapshot(Resource schemaFile) throws CommandExecutionException {
-        File fileToSource = writeSnapshotThatMightBeInAJarFileToAPlainOldFileOnDisk(schemaFile);
-        dropAndRecreateDatabaseFromSnapshotThatIsAlreadyOnDisk(fileToSource);
+        dropAndRecreateEmptyDatabase();
+        try (InputStream snapshot = SnapshotExtractionCache.defaultCache().open(schemaFile);
+             InputStream script = SnapshotCompression.forFilename(schemaFile.getFilename()).decompress(snapshot)) {
+            executeScript(script, schemaFile.getFilename());
+        } catch (IOException e) {
+            LOG.error("Error reading database snapshot " + schemaFile, e);
+            throw new CommandExecutionException(e);
+        }
     }
 
     @Override
     public void dropAndRecreateDatabaseFromSnapshotThatIsAlreadyOnDisk(File absoluteFileName) throws CommandExecutionException {
-        executeStatement("drop database if exists " + databaseDetails.getSchemaName());
-        executeStatement("create database " + databaseDetails.getSchemaName());
-        executeStatement("use " + databaseDetails.getSchemaName());
-        executeScript(absoluteFileName);
+        dropAndRecreateDatabaseFromSnapshotThatIsAlreadyOnDisk(absoluteFileName, null);
+    }
+
+    public void dropAndRecreateDatabaseFromSnapshotThatIsAlreadyOnDisk(File absoluteFileName, String snapshotSchemaName) throws CommandExecutionException {
+        dropAndRecreateEmptyDatabase();
+        try (InputStream snapshot = new FileInputStream(absoluteFileName.getAbsoluteFile());
+             InputStream script = SnapshotCompression.forFilename(absoluteFileName.getName()).decompress(snapshot)) {
+            executeScript(SchemaRenamingInputStream.renameSchema(script, snapshotSchemaName, databaseDetails.getSchemaName()), absoluteFileName.getName());
+        } catch (IOException e) {
+            throw new CommandExecutionException(e);
+        }
+    }
+
+    public void dropAndRecreateDatabaseFromSnapshotStream(InputStream script) throws CommandExecutionException {
+        dropAndRecreateEmptyDatabase();
+        executeScript(script, "stream.sql");
+    }
+
+    public void dropAndRecreateDatabaseFromTemplate(String templateSchemaName) throws CommandExecutionException, SQLException {
+        closeConnection();
+        new SchemaCloner(getAdminDataSource(), restoreOptions.getThreads()).cloneSchema(templateSchemaName, databaseDetails.getSchemaName());
+    }
+
+    public void copyDatabaseToTemplate(String templateSchemaName) throws CommandExecutionException {
+        new SchemaCloner(getAdminDataSource(), restoreOptions.getThreads()).cloneSchema(databaseDetails.getSchemaName(), templateSchemaName);
+    }
+
+    public void copyDatabaseTo(List<MySqlDatabaseHelper> targets, File capturedSnapshotFile) throws CommandExecutionException {
+        getAdminDataSource((targets.size() + 2) * (restoreOptions.getThreads() + 1));
+        SnapshotPipeline pipeline = new SnapshotPipeline();
+        for (MySqlDatabaseHelper target : targets) {
+            pipeline.to(SchemaRenamingInputStream.renamingSchema(databaseDetails.getSchemaName(), target.getDatabaseDetails().getSchemaName(),
+                    target::dropAndRecreateDatabaseFromSnapshotStream));
+        }
+        if (capturedSnapshotFile != null) {
+            pipeline.to(snapshot -> captureSnapshot(snapshot, capturedSnapshotFile));
+        }
+        pipeline.run(new JdbcSnapshotDumper(getAdminDataSource(), databaseDetails.getSchemaName(), restoreOptions.getThreads())::streamSchema);
+
+        SchemaCloner schemaCloner = new SchemaCloner(getAdminDataSource(), restoreOptions.getThreads());
+        for (MySqlDatabaseHelper target : targets) {
+            schemaCloner.copyGrants(databaseDetails.getSchemaName(), target.getDatabaseDetails().getSchemaName());
+        }
+    }
+
+    public boolean reloadTablesFromTemplate(String templateSchemaName, Collection<String> tables) throws CommandExecutionException {
+        return new SchemaCloner(getAdminDataSource(), restoreOptions.getThreads()).reloadTables(templateSchemaName, databaseDetails.getSchemaName(), tables);
+    }
+
+    public boolean exportTablespaces(File directory) throws CommandExecutionException, IOException {
+        if (!new TablespaceTransporter(getAdminDataSource(), databaseDetails.getSchemaName(), restoreOptions.getThreads()).exportTablespaces(directory)) {
+            return false;
+        }
+        createSnapshot(new File(directory, TablespaceTransporter.SCHEMA_FILE), false);
+        return true;
+    }
+
+    public void importTablespaces(File directory) throws CommandExecutionException, SQLException {
+        closeConnection();
+        dropAndRecreateDatabaseFromSnapshotThatIsAlreadyOnDisk(new File(directory, TablespaceTransporter.SCHEMA_FILE));
+        new TablespaceTransporter(getAdminDataSource(), databaseDetails.getSchemaName(), restoreOptions.getThreads()).importTablespaces(directory);
+    }
+
+    public Map<String, Long> getTableRowCounts(String schemaName) throws CommandExecutionException {
+        return new SchemaCloner(getAdminDataSource(), restoreOptions.getThreads()).tableRowCounts(schemaName);
+    }
+
+    public DirtyTableTracker createDirtyTableTracker() {
+        return new DirtyTableTracker(getAdminDataSource(), databaseDetails.getSchemaName());
+    }
+
+    public BinlogUndoLog createBinlogUndoLog() {
+        return new BinlogUndoLog(getAdminDataSource(), databaseDetails);
+    }
+
+    public void prepareShadowDatabase(String templateSchemaName, String shadowSchemaName) throws CommandExecutionException {
+        SchemaCloner schemaCloner = new SchemaCloner(getAdminDataSource(), restoreOptions.getThreads());
+        schemaCloner.dropSchema(getTrashSchemaName());
+        schemaCloner.copyTablesWithoutForeignKeys(templateSchemaName, shadowSchemaName);
+    }
+
+    public void swapInShadowDatabase(String templateSchemaName, String shadowSchemaName) throws CommandExecutionException, SQLException {
+        closeConnection();
+        new SchemaCloner(getAdminDataSource(), restoreOptions.getThreads())
+                .swapInTables(templateSchemaName, shadowSchemaName, databaseDetails.getSchemaName(), getTrashSchemaName());
+    }
+
+    public Map<String, ConnectionPoolMetrics> getConnectionPoolMetrics() {
+        Map<String, ConnectionPoolMetrics> metrics = new LinkedHashMap<>();
+        metrics.put("migration", getMigrationPool().getMetrics());
+        metrics.put("admin", getAdminPool().getMetrics());
+        return metrics;
+    }
+
+    public SnapshotLoadStatistics getLastSnapshotLoadStatistics() {
+        return lastSnapshotLoadStatistics;
     }
 
     @Override
     public void createSnapshot(File targetFile, boolean includeData) throws CommandExecutionException, IOException {
-        createSchemaSnapshot(targetFile, includeData);
-        createTablePrivilegesSnapshot(targetFile);
+        if (ColumnarSnapshot.isColumnar(targetFile.getName())) {
+            createColumnarSnapshot(targetFile, includeData);
+            return;
+        }
+        SnapshotCompression compression = SnapshotCompression.forFilename(targetFile.getName());
+        try (OutputStream file = new FileOutputStream(targetFile);
+             OutputStream snapshot = compression.compress(new BufferedOutputStream(file, 64 * 1024))) {
+            SnapshotDumper snapshotDumper = createSnapshotDumper();
+            snapshotDumper.dumpSchema(snapshot, includeData);
+            createTablePrivilegesSnapshot(snapshotDumper, snapshot);
+        }
     }
 
-    private File writeSnapshotThatMightBeInAJarFileToAPlainOldFileOnDisk(Resource schemaFile) throws CommandExecutionException {
-        File fileToSource;
-        try {
-            fileToSource = schemaFile.getFile();
-        } catch (IOException e) {
-            LOG.debug("Snapshot file does not exist locally. Copying from jar so mysql can source it.");
-            try {
-                fileToSource = File.createTempFile(defaultSchemaResource.getFilename(), ".sql");
-                fileToSource.deleteOnExit();
-                IOUtils.copy(schemaFile.getInputStream(), new FileOutputStream(fileToSource));
-            } catch (IOException e2) {
-                LOG.error("Error creating temp copy of database snapshot", e2);
-                throw new CommandExecutionException(e2);
+    private void dropAndRecreateEmptyDatabase() throws CommandExecutionException {
+        executeStatement("drop database if exists " + databaseDetails.getSchemaName());
+        executeStatement("create database " + databaseDetails.getSchemaName());
+        executeStatement("use " + databaseDetails.getSchemaName());
+    }
+
+    private void captureSnapshot(InputStream script, File targetFile) throws CommandExecutionException, IOException {
+        SnapshotCompression compression = SnapshotCompression.forFilename(targetFile.getName());
+        try (OutputStream file = new FileOutputStream(targetFile);
+             OutputStream snapshot = compression.compress(new BufferedOutputStream(file, 64 * 1024))) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = script.read(buffer)) >= 0) {
+                snapshot.write(buffer, 0, read);
             }
+            createTablePrivilegesSnapshot(createSnapshotDumper(), snapshot);
+        }
+    }
+
+    private void createColumnarSnapshot(File targetFile, boolean includeData) throws CommandExecutionException, IOException {
+        ColumnarSnapshotDumper snapshotDumper = new ColumnarSnapshotDumper(getAdminDataSource(), databaseDetails.getSchemaName(), restoreOptions.getThreads());
+        try (OutputStream file = new FileOutputStream(targetFile);
+             ZipOutputStream snapshot = new ZipOutputStream(new BufferedOutputStream(file, 64 * 1024), UTF_8)) {
+            snapshot.setLevel(Deflater.BEST_SPEED);
+            snapshotDumper.dumpSchema(snapshot, includeData);
+            snapshot.putNextEntry(new ZipEntry(ColumnarSnapshot.PRIVILEGES_ENTRY));
+            createTablePrivilegesSnapshot(createSnapshotDumper(), snapshot);
+            snapshot.closeEntry();
         }
-        return fileToSource;
     }
 
-    private void createSchemaSnapshot(File targetFile, boolean includeData) throws CommandExecutionException {
-        commandLineHelper.executeCommand(new String[]{
-                "mysqldump",
-                "--user=" + databaseDetails.getAdminUser(),
-                "--password=" + databaseDetails.getAdminPassword(),
-                "--host=" + databaseDetails.getHost(),
-                "--port=" + getPort(),
-                "--no-data=" + (includeData ? "false" : "true"),
-                databaseDetails.getSchemaName()}, targetFile, false);
+    private void createTablePrivilegesSnapshot(SnapshotDumper snapshotDumper, OutputStream snapshot) throws CommandExecutionException, IOException {
+        appendToSnapshot(snapshot, "-- Switching to mysql database to migrate tables_priv");
+        appendToSnapshot(snapshot, "USE mysql;");
+        snapshotDumper.dumpTablePrivileges(snapshot);
+        appendToSnapshot(snapshot, "FLUSH PRIVILEGES;");
     }
 
-    private void createTablePrivilegesSnapshot(File targetFile) throws CommandExecutionException, IOException {
-        appendToSnapshot(targetFile, "-- Switching to mysql database to migrate tables_priv");
-        appendToSnapshot(targetFile, "USE mysql;");
-        commandLineHelper.executeCommand(new String[]{
-                "mysqldump",
-                "--user=" + databaseDetails.getAdminUser(),
-                "--password=" + databaseDetails.getAdminPassword(),
-                "--host=" + databaseDetails.getHost(),
-                "--port=" + getPort(),
-                "--no-create-info",
-                "--replace", "mysql",
-                "--tables", "tables_priv",
-                "--where=Db='" + databaseDetails.getSchemaName() + "'"}, targetFile, true);
-        appendToSnapshot(targetFile, "FLUSH PRIVILEGES;");
+    private SnapshotDumper createSnapshotDumper() {
+        if ("mysqldump".equalsIgnoreCase(System.getProperty(SNAPSHOT_DUMPER_PROPERTY, "jdbc"))) {
+            return new MysqldumpSnapshotDumper(databaseDetails, commandLineHelper);
+        }
+        return new JdbcSnapshotDumper(getAdminDataSource(), databaseDetails.getSchemaName(), restoreOptions.getThreads());
     }
 
     private void executeStatement(String statement) throws CommandExecutionException {
@@ -174,36 +312,96 @@ public class MySqlDatabaseHelper implements DatabaseHelper {
         }
     }
 
-    private void executeScript(File scriptFile) throws CommandExecutionException {
-        DataSource dataSource = getAdminDataSource();
-        try (Connection connection = dataSource.getConnection()) {
-            Reader reader = new BufferedReader(new FileReader(scriptFile.getAbsoluteFile()));
-            ScriptRunner scriptRunner = new ScriptRunner(connection);
-            scriptRunner.setLogWriter(null);
-            scriptRunner.runScript(reader);
-        } catch (Exception e) {
-            throw new CommandExecutionException(e);
+    private void executeScript(InputStream script, String snapshotName) throws CommandExecutionException {
+        DataSource adminDataSource = getRestoreDataSource();
+        if (!restoreOptions.isFastRestore()) {
+            lastSnapshotLoadStatistics = createSnapshotLoader(adminDataSource, snapshotName).load(script);
+            FastRestoreProfile.recordBaseline(lastSnapshotLoadStatistics);
+            LOG.info(format("Loaded snapshot %s into %s: %s", snapshotName, databaseDetails.getSchemaName(), lastSnapshotLoadStatistics));
+            return;
         }
+        try (FastRestoreProfile fastRestoreProfile = FastRestoreProfile.apply(adminDataSource)) {
+            lastSnapshotLoadStatistics = createSnapshotLoader(fastRestoreProfile.getDataSource(), snapshotName).load(script);
+        }
+        OptionalLong millisSaved = FastRestoreProfile.estimateMillisSaved(lastSnapshotLoadStatistics);
+        LOG.info(format("Loaded snapshot %s into %s with fast restore: %s, %s", snapshotName, databaseDetails.getSchemaName(), lastSnapshotLoadStatistics,
+                millisSaved.isPresent() ? format("saved about %d ms", millisSaved.getAsLong()) : "no load without fast restore to compare against"));
+    }
+
+    private SnapshotLoader createSnapshotLoader(DataSource dataSource, String snapshotName) {
+        DeferredIndexBuilder deferredIndexBuilder = restoreOptions.isDeferIndexes() ? new DeferredIndexBuilder(restoreOptions.getThreads()) : null;
+        if (ColumnarSnapshot.isColumnar(snapshotName)) {
+            return new ColumnarSnapshotLoader(dataSource, databaseDetails.getSchemaName(), deferredIndexBuilder);
+        }
+        if (restoreOptions.isParallel()) {
+            return new ParallelSnapshotLoader(dataSource, databaseDetails.getSchemaName(), restoreOptions.getThreads(), deferredIndexBuilder);
+        }
+        return new BatchingSnapshotLoader(dataSource, databaseDetails.getSchemaName(), deferredIndexBuilder);
     }
 
-    private int getPort() {
-        return databaseDetails.getPort() == -1 ? 3306 : databaseDetails.getPort();
+    private void appendToSnapshot(OutputStream snapshot, String str) throws IOException {
+        snapshot.write((str + "\n").getBytes(UTF_8));
     }
 
-    private void appendToSnapshot(File targetFile, String str) throws IOException {
-        try (Writer writer = new FileWriter(targetFile, true)) {
-            writer.write(str);
-            writer.write("\n");
-        }
+    private String getTrashSchemaName() {
+        return databaseDetails.getSchemaName() + "_trash";
     }
 
     private DataSource getAdminDataSource() {
-        if (adminDataSource == null) {
-            adminDataSource = new BasicDataSource();
-            adminDataSource.setUrl(getUrl());
-            adminDataSource.setUsername(databaseDetails.getAdminUser());
-            adminDataSource.setPassword(databaseDetails.getAdminPassword());
+        return getAdminDataSource(restoreOptions.getThreads() + 1);
+    }
+
+    private DataSource getRestoreDataSource() {
+        return restoreOptions.isDeferIndexes() ? getAdminDataSource(2 * restoreOptions.getThreads() + 1) : getAdminDataSource();
+    }
+
+    private DataSource getAdminDataSource(int connections) {
+        ConnectionPool adminPool = getAdminPool();
+        synchronized (adminPool) {
+            if (adminPool.getMaxSize() < connections) {
+                adminPool.setMaxSize(connections);
+            }
         }
-        return adminDataSource;
+        return adminPool.getDataSource();
+    }
+
+    private ConnectionPool getMigrationPool() {
+        String key = serverKey(databaseDetails.getHost(), databaseDetails.getPort()) + "#" + getUrl() + "#" + databaseDetails.getMigrationUser();
+        return MIGRATION_POOLS.computeIfAbsent(key, ignored -> ConnectionPool.create(
+                ConnectionPoolSettings.forUrl(getUrl(), databaseDetails.getMigrationUser(), databaseDetails.getMigrationPassword())
+                        .withDefaultAutoCommit(false)));
+    }
+
+    private ConnectionPool getAdminPool() {
+        String adminUrl = getAdminUrl();
+        String key = serverKey(databaseDetails.getHost(), databaseDetails.getPort()) + "#" + adminUrl + "#" + databaseDetails.getAdminUser();
+        return ADMIN_POOLS.computeIfAbsent(key, ignored -> ConnectionPool.create(
+                ConnectionPoolSettings.forUrl(adminUrl, databaseDetails.getAdminUser(), databaseDetails.getAdminPassword())
+                        .withConnectionProperty("rewriteBatchedStatements", "true")
+                        .withConnectionProperty("allowLoadLocalInfile", "true")));
+    }
+
+    // Testcontainers starts a container for each distinct jdbc:tc: url, so those urls are used unchanged
+    private String getAdminUrl() {
+        DatabaseUrl url = new DatabaseUrl(getUrl());
+        return url.isTestcontainers() ? getUrl() : url.withSchemaName("");
+    }
+
+    public static void closeConnectionPools(String host, int port) {
+        String server = serverKey(host, port) + "#";
+        for (Map<String, ConnectionPool> pools : Arrays.asList(MIGRATION_POOLS, ADMIN_POOLS)) {
+            for (String key : pools.keySet()) {
+                if (key.startsWith(server)) {
+                    ConnectionPool pool = pools.remove(key);
+                    if (pool != null) {
+                        pool.close();
+                    }
+                }
+            }
+        }
+    }
+
+    private static String serverKey(String host, int port) {
+        return format("%s:%d", host, port);
     }
 }
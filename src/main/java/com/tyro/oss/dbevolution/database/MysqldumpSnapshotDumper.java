@@ -0,0 +1,61 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import com.tyro.oss.dbevolution.DatabaseDetails;
+
+import java.io.OutputStream;
+
+public class MysqldumpSnapshotDumper implements SnapshotDumper {
+
+    private final DatabaseDetails databaseDetails;
+    private final CommandLineHelper commandLineHelper;
+
+    public MysqldumpSnapshotDumper(DatabaseDetails databaseDetails, CommandLineHelper commandLineHelper) {
+        this.databaseDetails = databaseDetails;
+        this.commandLineHelper = commandLineHelper;
+    }
+
+    @Override
+    public void dumpSchema(OutputStream snapshot, boolean includeData) throws CommandExecutionException {
+        commandLineHelper.executeCommand(new String[]{
+                "mysqldump",
+                "--user=" + databaseDetails.getAdminUser(),
+                "--password=" + databaseDetails.getAdminPassword(),
+                "--host=" + databaseDetails.getHost(),
+                "--port=" + getPort(),
+                "--no-data=" + (includeData ? "false" : "true"),
+                databaseDetails.getSchemaName()}, snapshot);
+    }
+
+    @Override
+    public void dumpTablePrivileges(OutputStream snapshot) throws CommandExecutionException {
+        commandLineHelper.executeCommand(new String[]{
+                "mysqldump",
+                "--user=" + databaseDetails.getAdminUser(),
+                "--password=" + databaseDetails.getAdminPassword(),
+                "--host=" + databaseDetails.getHost(),
+                "--port=" + getPort(),
+                "--no-create-info",
+                "--replace", "mysql",
+                "--tables", "tables_priv",
+                "--where=Db='" + databaseDetails.getSchemaName() + "'"}, snapshot);
+    }
+
+    private int getPort() {
+        return databaseDetails.getPort() == -1 ? 3306 : databaseDetails.getPort();
+    }
+}
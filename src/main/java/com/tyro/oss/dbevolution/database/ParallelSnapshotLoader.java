@@ -0,0 +1,354 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.apache.commons.io.input.CountingInputStream;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.tyro.oss.dbevolution.database.BatchingSnapshotLoader.MAX_BATCH_CHARACTERS;
+import static com.tyro.oss.dbevolution.database.BatchingSnapshotLoader.MAX_BATCH_STATEMENTS;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.lang3.StringUtils.containsIgnoreCase;
+
+public class ParallelSnapshotLoader implements SnapshotLoader {
+
+    private final DataSource dataSource;
+    private final String schemaName;
+    private final int threads;
+    private final DeferredIndexBuilder deferredIndexBuilder;
+
+    public ParallelSnapshotLoader(DataSource dataSource, String schemaName, int threads) {
+        this(dataSource, schemaName, threads, null);
+    }
+
+    public ParallelSnapshotLoader(DataSource dataSource, String schemaName, int threads, DeferredIndexBuilder deferredIndexBuilder) {
+        this.dataSource = dataSource;
+        this.schemaName = schemaName;
+        this.threads = threads;
+        this.deferredIndexBuilder = deferredIndexBuilder;
+    }
+
+    @Override
+    public SnapshotLoadStatistics load(InputStream script) throws CommandExecutionException {
+        long start = System.nanoTime();
+        try (CountingInputStream countingStream = new CountingInputStream(script);
+             SqlScriptReader reader = new SqlScriptReader(new InputStreamReader(countingStream, UTF_8));
+             Restore restore = new Restore(borrowConnections(threads + 1))) {
+            for (String sql = reader.nextStatement(); sql != null; sql = reader.nextStatement()) {
+                restore.add(sql, reader.getLineNumber());
+            }
+            restore.finish();
+            return new SnapshotLoadStatistics(restore.getStatementCount(), restore.getBatchCount(), countingStream.getByteCount(), System.nanoTime() - start);
+        } catch (IOException | SQLException | InterruptedException e) {
+            throw new CommandExecutionException(e);
+        }
+    }
+
+    // restores sharing a pool take all their connections at once, so none of them can wait forever holding only some
+    private List<Connection> borrowConnections(int count) throws SQLException {
+        List<Connection> connections = new ArrayList<>();
+        synchronized (dataSource) {
+            try {
+                while (connections.size() < count) {
+                    connections.add(dataSource.getConnection());
+                }
+            } catch (SQLException | RuntimeException e) {
+                closeQuietly(connections, e);
+                throw e;
+            }
+        }
+        return connections;
+    }
+
+    private static void closeQuietly(List<Connection> connections, Exception failure) {
+        for (Connection connection : connections) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                failure.addSuppressed(e);
+            }
+        }
+    }
+
+    private class Restore implements AutoCloseable {
+
+        private final Connection connection;
+        private final BatchingSnapshotLoader.StatementBatch schemaBatch;
+        private final List<ScriptStatement> deferredStatements = new ArrayList<>();
+        private final BlockingQueue<DataLoader> dataLoaders = new ArrayBlockingQueue<>(threads);
+        private final List<DataLoader> allDataLoaders = new ArrayList<>();
+        private final Semaphore tasksInFlight = new Semaphore(threads * 2);
+        private final AtomicReference<Exception> failure = new AtomicReference<>();
+        private final ExecutorService executor;
+
+        private final List<String> sessionSettings = new CopyOnWriteArrayList<>();
+        private List<ScriptStatement> tableData = new ArrayList<>();
+        private String currentTable;
+        private int tableDataCharacters;
+        private boolean inTargetSchema = true;
+
+        Restore(List<Connection> connections) throws SQLException {
+            try {
+                this.connection = connections.get(0);
+                this.schemaBatch = new BatchingSnapshotLoader.StatementBatch(connection);
+                connection.setCatalog(schemaName);
+                for (Connection loaderConnection : connections.subList(1, connections.size())) {
+                    DataLoader dataLoader = new DataLoader(loaderConnection);
+                    allDataLoaders.add(dataLoader);
+                    dataLoaders.add(dataLoader);
+                }
+            } catch (SQLException | RuntimeException e) {
+                closeQuietly(connections, e);
+                throw e;
+            }
+            this.executor = Executors.newFixedThreadPool(threads, new LoaderThreadFactory());
+        }
+
+        void add(String sql, long lineNumber) throws SQLException, InterruptedException {
+            String[] keywords = SqlStatements.leadingKeywords(sql, 2);
+            String keyword = keywords.length > 0 ? keywords[0] : "";
+
+            if ("USE".equals(keyword)) {
+                inTargetSchema = schemaName.equalsIgnoreCase(SqlStatements.identifierAfterFirstKeyword(sql));
+                schemaBatch.add(sql, lineNumber);
+                deferredStatements.add(new ScriptStatement(sql, lineNumber));
+            } else if ("SET".equals(keyword)) {
+                sessionSettings.add(sql);
+                schemaBatch.add(sql, lineNumber);
+                deferredStatements.add(new ScriptStatement(sql, lineNumber));
+            } else if (!inTargetSchema) {
+                deferredStatements.add(new ScriptStatement(sql, lineNumber));
+            } else if ("INSERT".equals(keyword) || "REPLACE".equals(keyword)) {
+                addTableData(SqlStatements.insertTarget(sql), new ScriptStatement(sql, lineNumber));
+            } else if (isTableLockOrKeyToggle(keyword, sql)) {
+                return;
+            } else if (("CREATE".equals(keyword) || "DROP".equals(keyword)) && keywords.length > 1 && "TABLE".equals(keywords[1])) {
+                schemaBatch.add(deferredIndexBuilder == null ? sql : deferredIndexBuilder.rewrite(sql), lineNumber);
+            } else {
+                deferredStatements.add(new ScriptStatement(sql, lineNumber));
+            }
+        }
+
+        void finish() throws SQLException, InterruptedException {
+            submitTableData();
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            throwIfFailed();
+            for (DataLoader dataLoader : allDataLoaders) {
+                dataLoader.restoreSession(sessionSettings);
+            }
+            closeDataLoaders();
+
+            schemaBatch.flush();
+            if (deferredIndexBuilder != null) {
+                deferredIndexBuilder.buildDeferredIndexes(dataSource, schemaName);
+            }
+            for (ScriptStatement statement : deferredStatements) {
+                schemaBatch.add(statement.sql, statement.lineNumber);
+            }
+            schemaBatch.flush();
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+        }
+
+        long getStatementCount() {
+            return schemaBatch.getStatementCount() + allDataLoaders.stream().mapToLong(loader -> loader.batch.getStatementCount()).sum();
+        }
+
+        long getBatchCount() {
+            return schemaBatch.getBatchCount() + allDataLoaders.stream().mapToLong(loader -> loader.batch.getBatchCount()).sum();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            executor.shutdownNow();
+            try {
+                closeDataLoaders();
+            } finally {
+                connection.close();
+            }
+        }
+
+        private void closeDataLoaders() throws SQLException {
+            SQLException closeFailure = null;
+            for (DataLoader dataLoader : allDataLoaders) {
+                try {
+                    dataLoader.close();
+                } catch (SQLException e) {
+                    closeFailure = e;
+                }
+            }
+            if (closeFailure != null) {
+                throw closeFailure;
+            }
+        }
+
+        private void addTableData(String table, ScriptStatement statement) throws SQLException, InterruptedException {
+            if (!table.equals(currentTable) || tableData.size() >= MAX_BATCH_STATEMENTS || tableDataCharacters >= MAX_BATCH_CHARACTERS) {
+                submitTableData();
+                currentTable = table;
+            }
+            tableData.add(statement);
+            tableDataCharacters += statement.sql.length();
+        }
+
+        private void submitTableData() throws SQLException, InterruptedException {
+            if (tableData.isEmpty()) {
+                return;
+            }
+            throwIfFailed();
+            schemaBatch.flush();
+
+            List<ScriptStatement> statements = tableData;
+            int settingsCount = sessionSettings.size();
+            tableData = new ArrayList<>();
+            tableDataCharacters = 0;
+
+            tasksInFlight.acquire();
+            executor.execute(() -> {
+                DataLoader dataLoader = null;
+                try {
+                    dataLoader = dataLoaders.take();
+                    dataLoader.load(sessionSettings, settingsCount, statements);
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    if (dataLoader != null) {
+                        dataLoaders.add(dataLoader);
+                    }
+                    tasksInFlight.release();
+                }
+            });
+        }
+
+        private void throwIfFailed() throws SQLException {
+            Exception e = failure.get();
+            if (e instanceof SQLException) {
+                throw (SQLException) e;
+            } else if (e != null) {
+                throw new SQLException("Failed to load table data", e);
+            }
+        }
+
+        private boolean isTableLockOrKeyToggle(String keyword, String sql) {
+            return "LOCK".equals(keyword)
+                    || "UNLOCK".equals(keyword)
+                    || "ALTER".equals(keyword) && (containsIgnoreCase(sql, "DISABLE KEYS") || containsIgnoreCase(sql, "ENABLE KEYS"));
+        }
+    }
+
+    private class DataLoader {
+
+        private final Connection connection;
+        private final BatchingSnapshotLoader.StatementBatch batch;
+        private int appliedSessionSettings = -1;
+
+        DataLoader(Connection connection) throws SQLException {
+            this.connection = connection;
+            this.batch = new BatchingSnapshotLoader.StatementBatch(connection);
+            connection.setCatalog(schemaName);
+            connection.setAutoCommit(false);
+        }
+
+        void load(List<String> sessionSettings, int settingsCount, List<ScriptStatement> statements) throws SQLException {
+            if (settingsCount > appliedSessionSettings) {
+                applySessionSettings(sessionSettings, settingsCount);
+            }
+            for (ScriptStatement statement : statements) {
+                batch.add(statement.sql, statement.lineNumber);
+            }
+            batch.flush();
+            connection.commit();
+        }
+
+        void restoreSession(List<String> sessionSettings) throws SQLException {
+            if (appliedSessionSettings < 0) {
+                return;
+            }
+            try (Statement statement = connection.createStatement()) {
+                for (String setting : sessionSettings.subList(appliedSessionSettings, sessionSettings.size())) {
+                    statement.execute(setting);
+                }
+                statement.execute("SET FOREIGN_KEY_CHECKS = 1");
+                statement.execute("SET UNIQUE_CHECKS = 1");
+            }
+            appliedSessionSettings = sessionSettings.size();
+        }
+
+        void close() throws SQLException {
+            if (connection.isClosed()) {
+                return;
+            }
+            try {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            } finally {
+                connection.close();
+            }
+        }
+
+        private void applySessionSettings(List<String> sessionSettings, int settingsCount) throws SQLException {
+            boolean checksChanged = appliedSessionSettings < 0;
+            try (Statement statement = connection.createStatement()) {
+                for (String setting : sessionSettings.subList(Math.max(appliedSessionSettings, 0), settingsCount)) {
+                    statement.execute(setting);
+                    checksChanged |= containsIgnoreCase(setting, "_CHECKS");
+                }
+                if (checksChanged) {
+                    statement.execute("SET FOREIGN_KEY_CHECKS = 0");
+                    statement.execute("SET UNIQUE_CHECKS = 0");
+                }
+            }
+            appliedSessionSettings = settingsCount;
+        }
+    }
+
+    private static class ScriptStatement {
+
+        private final String sql;
+        private final long lineNumber;
+
+        ScriptStatement(String sql, long lineNumber) {
+            this.sql = sql;
+            this.lineNumber = lineNumber;
+        }
+    }
+
+    private static class LoaderThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "snapshot-loader-" + THREAD_NUMBER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import com.tyro.oss.dbevolution.DatabaseDetails;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class PooledSchema implements AutoCloseable {
+
+    private final SchemaPool pool;
+    private final DatabaseDetails databaseDetails;
+    private final AtomicBoolean leased = new AtomicBoolean();
+
+    PooledSchema(SchemaPool pool, DatabaseDetails databaseDetails) {
+        this.pool = pool;
+        this.databaseDetails = databaseDetails;
+    }
+
+    public DatabaseDetails getDatabaseDetails() {
+        return databaseDetails;
+    }
+
+    void markLeased() {
+        leased.set(true);
+    }
+
+    @Override
+    public void close() {
+        if (leased.compareAndSet(true, false)) {
+            pool.release(this);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import com.tyro.oss.dbevolution.DatabaseDetails;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class PooledServer implements AutoCloseable {
+
+    private final EmbeddedServerPool pool;
+    private final EmbeddedMySqlServer server;
+    private final AtomicBoolean leased = new AtomicBoolean();
+    private int leaseCount;
+
+    PooledServer(EmbeddedServerPool pool, EmbeddedMySqlServer server) {
+        this.pool = pool;
+        this.server = server;
+    }
+
+    public DatabaseDetails getDatabaseDetails(String schemaName) {
+        return server.getDatabaseDetails(schemaName);
+    }
+
+    public EmbeddedMySqlServer getServer() {
+        return server;
+    }
+
+    int getLeaseCount() {
+        return leaseCount;
+    }
+
+    void markLeased() {
+        leased.set(true);
+        leaseCount++;
+    }
+
+    @Override
+    public void close() {
+        if (leased.compareAndSet(true, false)) {
+            pool.release(this);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import com.tyro.oss.dbevolution.DatabaseDetails;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+public class ResetContext {
+
+    private final DatabaseDetails databaseDetails;
+    private final String migrationScriptsFilename;
+    private final MySqlDatabaseHelper databaseHelper;
+    private final String templateSchemaName;
+    private final Map<String, Long> templateRowCounts;
+    private final Set<String> dirtyTables;
+
+    ResetContext(DatabaseDetails databaseDetails, String migrationScriptsFilename, MySqlDatabaseHelper databaseHelper,
+                 String templateSchemaName, Map<String, Long> templateRowCounts, Set<String> dirtyTables) {
+        this.databaseDetails = databaseDetails;
+        this.migrationScriptsFilename = migrationScriptsFilename;
+        this.databaseHelper = databaseHelper;
+        this.templateSchemaName = templateSchemaName;
+        this.templateRowCounts = templateRowCounts;
+        this.dirtyTables = dirtyTables;
+    }
+
+    public DatabaseDetails getDatabaseDetails() {
+        return databaseDetails;
+    }
+
+    public String getMigrationScriptsFilename() {
+        return migrationScriptsFilename;
+    }
+
+    public MySqlDatabaseHelper getDatabaseHelper() {
+        return databaseHelper;
+    }
+
+    public String getTemplateSchemaName() {
+        return templateSchemaName;
+    }
+
+    public Set<String> getAllTables() {
+        return templateRowCounts.keySet();
+    }
+
+    public Set<String> getDirtyTables() {
+        return dirtyTables;
+    }
+
+    public boolean isDirtyTrackingAvailable() {
+        return dirtyTables != null;
+    }
+
+    long getWorkload(Collection<String> tables) {
+        long workload = 0;
+        for (String table : tables) {
+            workload += 1 + templateRowCounts.getOrDefault(table, 0L);
+        }
+        return workload;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+public class RestoreOptions {
+
+    private final int threads;
+    private final boolean deferIndexes;
+    private final boolean fastRestore;
+
+    private RestoreOptions(int threads, boolean deferIndexes, boolean fastRestore) {
+        this.threads = threads;
+        this.deferIndexes = deferIndexes;
+        this.fastRestore = fastRestore;
+    }
+
+    public static RestoreOptions defaultRestoreOptions() {
+        return new RestoreOptions(1, false, false);
+    }
+
+    public RestoreOptions withThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Restore threads must be at least 1 but was " + threads);
+        }
+        return new RestoreOptions(threads, deferIndexes, fastRestore);
+    }
+
+    public RestoreOptions withDeferredIndexes(boolean deferIndexes) {
+        return new RestoreOptions(threads, deferIndexes, fastRestore);
+    }
+
+    public RestoreOptions withFastRestore(boolean fastRestore) {
+        return new RestoreOptions(threads, deferIndexes, fastRestore);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public boolean isParallel() {
+        return threads > 1;
+    }
+
+    public boolean isDeferIndexes() {
+        return deferIndexes;
+    }
+
+    public boolean isFastRestore() {
+        return fastRestore;
+    }
+}
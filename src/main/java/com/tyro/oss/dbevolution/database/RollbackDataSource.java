@@ -0,0 +1,286 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+public class RollbackDataSource implements DataSource {
+
+    private static final Log LOG = LogFactory.getLog(RollbackDataSource.class);
+
+    private final DataSource targetDataSource;
+    private final List<PinnedConnectionHandler> openHandlers = new ArrayList<>();
+
+    private Connection pinnedConnection;
+    private long savepointSequence;
+    private String transactionEndingStatement;
+
+    public RollbackDataSource(DataSource targetDataSource) {
+        this.targetDataSource = targetDataSource;
+    }
+
+    public synchronized void begin() throws SQLException {
+        if (pinnedConnection != null) {
+            return;
+        }
+        pinnedConnection = targetDataSource.getConnection();
+        pinnedConnection.setAutoCommit(false);
+        transactionEndingStatement = null;
+    }
+
+    public synchronized boolean rollback() throws SQLException {
+        if (pinnedConnection == null) {
+            return true;
+        }
+        Connection connection = pinnedConnection;
+        pinnedConnection = null;
+        openHandlers.clear();
+        try {
+            connection.rollback();
+            connection.setAutoCommit(true);
+        } finally {
+            connection.close();
+        }
+        if (transactionEndingStatement != null) {
+            LOG.info("Test writes could not be rolled back because the transaction was ended by: " + transactionEndingStatement);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized Connection getConnection() throws SQLException {
+        if (pinnedConnection == null) {
+            return targetDataSource.getConnection();
+        }
+        PinnedConnectionHandler handler = new PinnedConnectionHandler(pinnedConnection);
+        markTransactionStart(handler);
+        openHandlers.add(handler);
+        return proxy(Connection.class, handler);
+    }
+
+    @Override
+    public synchronized Connection getConnection(String username, String password) throws SQLException {
+        return pinnedConnection == null ? targetDataSource.getConnection(username, password) : getConnection();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return targetDataSource.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        targetDataSource.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        targetDataSource.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return targetDataSource.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return targetDataSource.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? iface.cast(this) : targetDataSource.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || targetDataSource.isWrapperFor(iface);
+    }
+
+    private void markTransactionStart(PinnedConnectionHandler handler) throws SQLException {
+        handler.transactionStart = handler.connection.setSavepoint();
+        handler.transactionStartSequence = ++savepointSequence;
+    }
+
+    private synchronized void commit(PinnedConnectionHandler handler) throws SQLException {
+        if (!hasLaterTransactionStart(handler)) {
+            handler.connection.releaseSavepoint(handler.transactionStart);
+        }
+        markTransactionStart(handler);
+    }
+
+    private synchronized void rollbackToTransactionStart(PinnedConnectionHandler handler) throws SQLException {
+        handler.connection.rollback(handler.transactionStart);
+        for (PinnedConnectionHandler other : new ArrayList<>(openHandlers)) {
+            if (other.transactionStartSequence > handler.transactionStartSequence) {
+                markTransactionStart(other);
+            }
+        }
+    }
+
+    private synchronized void setAutoCommit(PinnedConnectionHandler handler, boolean autoCommit) throws SQLException {
+        if (handler.autoCommit != autoCommit) {
+            commit(handler);
+            handler.autoCommit = autoCommit;
+        }
+    }
+
+    private synchronized void close(PinnedConnectionHandler handler) {
+        openHandlers.remove(handler);
+    }
+
+    private boolean hasLaterTransactionStart(PinnedConnectionHandler handler) {
+        return openHandlers.stream().anyMatch(other -> other.transactionStartSequence > handler.transactionStartSequence);
+    }
+
+    private synchronized boolean checkStatement(String sql) {
+        if (sql != null && SqlStatements.endsTransaction(sql)) {
+            if (transactionEndingStatement == null) {
+                transactionEndingStatement = sql;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized void restartTransactions() throws SQLException {
+        for (PinnedConnectionHandler handler : openHandlers) {
+            markTransactionStart(handler);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(RollbackDataSource.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private class PinnedConnectionHandler implements InvocationHandler {
+
+        private final Connection connection;
+        private Savepoint transactionStart;
+        private long transactionStartSequence;
+        private boolean autoCommit = true;
+        private boolean readOnly;
+        private boolean closed;
+
+        PinnedConnectionHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        RollbackDataSource.this.close(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || connection.isClosed();
+                case "commit":
+                    commit(this);
+                    return null;
+                case "rollback":
+                    if (args == null) {
+                        rollbackToTransactionStart(this);
+                        return null;
+                    }
+                    break;
+                case "getAutoCommit":
+                    return autoCommit;
+                case "setAutoCommit":
+                    setAutoCommit(this, (Boolean) args[0]);
+                    return null;
+                case "isReadOnly":
+                    return readOnly;
+                case "setReadOnly":
+                    readOnly = (Boolean) args[0];
+                    return null;
+                case "createStatement":
+                    return proxy(Statement.class, new StatementHandler(proxy, RollbackDataSource.invoke(connection, method, args), null));
+                case "prepareStatement":
+                    return proxy(PreparedStatement.class, new StatementHandler(proxy, RollbackDataSource.invoke(connection, method, args), (String) args[0]));
+                case "prepareCall":
+                    return proxy(CallableStatement.class, new StatementHandler(proxy, RollbackDataSource.invoke(connection, method, args), (String) args[0]));
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            return RollbackDataSource.invoke(connection, method, args);
+        }
+    }
+
+    private class StatementHandler implements InvocationHandler {
+
+        private final Object connectionProxy;
+        private final Object statement;
+        private final String preparedSql;
+
+        StatementHandler(Object connectionProxy, Object statement, String preparedSql) {
+            this.connectionProxy = connectionProxy;
+            this.statement = statement;
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("getConnection")) {
+                return connectionProxy;
+            }
+            boolean endsTransaction = (method.getName().startsWith("execute") || method.getName().equals("addBatch"))
+                    && checkStatement(args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql);
+            try {
+                return RollbackDataSource.invoke(statement, method, args);
+            } finally {
+                if (endsTransaction) {
+                    restartTransactions();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import java.io.Serializable;
+
+final class RowChange {
+
+    enum Type {
+        INSERT, UPDATE, DELETE
+    }
+
+    private final Type type;
+    private final String table;
+    private final Serializable[] before;
+    private final Serializable[] after;
+
+    RowChange(Type type, String table, Serializable[] before, Serializable[] after) {
+        this.type = type;
+        this.table = table;
+        this.before = before;
+        this.after = after;
+    }
+
+    static RowChange inserted(String table, Serializable[] row) {
+        return new RowChange(Type.INSERT, table, null, row);
+    }
+
+    static RowChange updated(String table, Serializable[] before, Serializable[] after) {
+        return new RowChange(Type.UPDATE, table, before, after);
+    }
+
+    static RowChange deleted(String table, Serializable[] row) {
+        return new RowChange(Type.DELETE, table, row, null);
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    String getTable() {
+        return table;
+    }
+
+    Serializable[] getBefore() {
+        return before;
+    }
+
+    Serializable[] getAfter() {
+        return after;
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.tyro.oss.dbevolution.database.JdbcSnapshotDumper.columnList;
+import static com.tyro.oss.dbevolution.database.JdbcSnapshotDumper.quoteIdentifier;
+import static java.lang.String.format;
+
+public class SchemaCloner {
+
+    private static final Log LOG = LogFactory.getLog(SchemaCloner.class);
+
+    private static final Pattern AUTO_INCREMENT = Pattern.compile("\\bAUTO_INCREMENT=(\\d+)");
+
+    private final DataSource dataSource;
+    private final int threads;
+
+    public SchemaCloner(DataSource dataSource, int threads) {
+        this.dataSource = dataSource;
+        this.threads = threads;
+    }
+
+    public void cloneSchema(String sourceSchema, String targetSchema) throws CommandExecutionException {
+        long start = System.currentTimeMillis();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            List<String> tables = new ArrayList<>();
+            List<String> views = new ArrayList<>();
+            JdbcSnapshotDumper.listTablesAndViews(connection, sourceSchema, tables, views);
+
+            recreateDatabase(connection, statement, sourceSchema, targetSchema);
+            copyTables(statement, sourceSchema, targetSchema, tables).buildDeferredIndexes(dataSource, targetSchema);
+            createViewsAndTriggers(connection, statement, sourceSchema, targetSchema, views);
+            copyGrants(connection, statement, sourceSchema, targetSchema);
+            LOG.info(format("Cloned %d tables and %d views from %s to %s in %d ms",
+                    tables.size(), views.size(), sourceSchema, targetSchema, System.currentTimeMillis() - start));
+        } catch (SQLException e) {
+            throw new CommandExecutionException(e);
+        }
+    }
+
+    public void copyTablesWithoutForeignKeys(String sourceSchema, String targetSchema) throws CommandExecutionException {
+        long start = System.currentTimeMillis();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            List<String> tables = new ArrayList<>();
+            JdbcSnapshotDumper.listTablesAndViews(connection, sourceSchema, tables, new ArrayList<>());
+
+            recreateDatabase(connection, statement, sourceSchema, targetSchema);
+            copyTables(statement, sourceSchema, targetSchema, tables);
+            LOG.debug(format("Copied %d tables from %s to %s in %d ms", tables.size(), sourceSchema, targetSchema, System.currentTimeMillis() - start));
+        } catch (SQLException e) {
+            throw new CommandExecutionException(e);
+        }
+    }
+
+    public void swapInTables(String templateSchema, String shadowSchema, String targetSchema, String trashSchema) throws CommandExecutionException {
+        long start = System.currentTimeMillis();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            List<String> templateTables = new ArrayList<>();
+            List<String> templateViews = new ArrayList<>();
+            JdbcSnapshotDumper.listTablesAndViews(connection, templateSchema, templateTables, templateViews);
+            List<String> targetTables = new ArrayList<>();
+            List<String> targetViews = new ArrayList<>();
+            JdbcSnapshotDumper.listTablesAndViews(connection, targetSchema, targetTables, targetViews);
+            List<String> shadowTables = new ArrayList<>();
+            JdbcSnapshotDumper.listTablesAndViews(connection, shadowSchema, shadowTables, new ArrayList<>());
+
+            DeferredIndexBuilder foreignKeys = new DeferredIndexBuilder(threads);
+            for (String table : templateTables) {
+                foreignKeys.deferForeignKeys(showCreate(statement, templateSchema, "TABLE", table, 2));
+            }
+
+            statement.execute("DROP DATABASE IF EXISTS " + quoteIdentifier(trashSchema));
+            statement.execute("CREATE DATABASE " + quoteIdentifier(trashSchema));
+            for (String trigger : triggers(statement, targetSchema)) {
+                statement.execute("DROP TRIGGER " + quoteIdentifier(targetSchema) + "." + quoteIdentifier(trigger));
+            }
+            for (String view : targetViews) {
+                statement.execute("DROP VIEW " + quoteIdentifier(targetSchema) + "." + quoteIdentifier(view));
+            }
+
+            List<String> renames = new ArrayList<>();
+            for (String table : targetTables) {
+                renames.add(quoteIdentifier(targetSchema) + "." + quoteIdentifier(table) + " TO " + quoteIdentifier(trashSchema) + "." + quoteIdentifier(table));
+            }
+            for (String table : shadowTables) {
+                renames.add(quoteIdentifier(shadowSchema) + "." + quoteIdentifier(table) + " TO " + quoteIdentifier(targetSchema) + "." + quoteIdentifier(table));
+            }
+            if (!renames.isEmpty()) {
+                statement.execute("RENAME TABLE " + String.join(", ", renames));
+            }
+
+            foreignKeys.buildDeferredIndexes(dataSource, targetSchema);
+            createViewsAndTriggers(connection, statement, templateSchema, targetSchema, templateViews);
+            LOG.info(format("Swapped %d tables from %s into %s in %d ms", shadowTables.size(), shadowSchema, targetSchema, System.currentTimeMillis() - start));
+        } catch (SQLException e) {
+            throw new CommandExecutionException(e);
+        }
+    }
+
+    public boolean reloadTables(String templateSchema, String targetSchema, Collection<String> tables) throws CommandExecutionException {
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            List<String> templateTables = new ArrayList<>();
+            List<String> templateViews = new ArrayList<>();
+            JdbcSnapshotDumper.listTablesAndViews(connection, templateSchema, templateTables, templateViews);
+            List<String> targetTables = new ArrayList<>();
+            List<String> targetViews = new ArrayList<>();
+            JdbcSnapshotDumper.listTablesAndViews(connection, targetSchema, targetTables, targetViews);
+            if (!new HashSet<>(templateTables).equals(new HashSet<>(targetTables)) || !new HashSet<>(templateViews).equals(new HashSet<>(targetViews))) {
+                LOG.info(format("Tables in %s no longer match %s so they cannot be reloaded individually", targetSchema, templateSchema));
+                return false;
+            }
+
+            Map<String, Future<?>> reloads = new LinkedHashMap<>();
+            for (String table : tables) {
+                String autoIncrement = autoIncrement(showCreate(statement, templateSchema, "TABLE", table, 2));
+                reloads.put(table, executor.submit(() -> {
+                    reloadTable(templateSchema, targetSchema, table, autoIncrement);
+                    return null;
+                }));
+            }
+            for (Map.Entry<String, Future<?>> reload : reloads.entrySet()) {
+                await(reload.getKey(), reload.getValue());
+            }
+            LOG.info(format("Reloaded %s in %s from %s in %d ms", tables, targetSchema, templateSchema, System.currentTimeMillis() - start));
+            return true;
+        } catch (SQLException e) {
+            throw new CommandExecutionException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public Map<String, Long> tableRowCounts(String schema) throws CommandExecutionException {
+        Map<String, Long> rowCounts = new LinkedHashMap<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT TABLE_NAME, COALESCE(TABLE_ROWS, 0) FROM information_schema.TABLES WHERE TABLE_SCHEMA = ? AND TABLE_TYPE = 'BASE TABLE'")) {
+            statement.setString(1, schema);
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    rowCounts.put(rows.getString(1), rows.getLong(2));
+                }
+            }
+        } catch (SQLException e) {
+            throw new CommandExecutionException(e);
+        }
+        return rowCounts;
+    }
+
+    public void copyGrants(String sourceSchema, String targetSchema) throws CommandExecutionException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            copyGrants(connection, statement, sourceSchema, targetSchema);
+        } catch (SQLException e) {
+            throw new CommandExecutionException(e);
+        }
+    }
+
+    public void dropSchema(String schema) throws CommandExecutionException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP DATABASE IF EXISTS " + quoteIdentifier(schema));
+        } catch (SQLException e) {
+            throw new CommandExecutionException(e);
+        }
+    }
+
+    private void recreateDatabase(Connection connection, Statement statement, String sourceSchema, String targetSchema) throws SQLException {
+        String characterSet = defaultCharacterSet(connection, sourceSchema);
+        statement.execute("DROP DATABASE IF EXISTS " + quoteIdentifier(targetSchema));
+        statement.execute("CREATE DATABASE " + quoteIdentifier(targetSchema) + characterSet);
+    }
+
+    private DeferredIndexBuilder copyTables(Statement statement, String sourceSchema, String targetSchema, List<String> tables) throws SQLException {
+        DeferredIndexBuilder foreignKeys = new DeferredIndexBuilder(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Map<String, Future<?>> copies = new LinkedHashMap<>();
+            for (String table : tables) {
+                String createTable = showCreate(statement, sourceSchema, "TABLE", table, 2);
+                foreignKeys.deferForeignKeys(createTable);
+                copies.put(table, executor.submit(() -> {
+                    copyTable(sourceSchema, targetSchema, table, autoIncrement(createTable));
+                    return null;
+                }));
+            }
+            for (Map.Entry<String, Future<?>> copy : copies.entrySet()) {
+                await(copy.getKey(), copy.getValue());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return foreignKeys;
+    }
+
+    private void createViewsAndTriggers(Connection connection, Statement statement, String sourceSchema, String targetSchema, List<String> views) throws SQLException {
+        String catalog = connection.getCatalog();
+        connection.setCatalog(targetSchema);
+        try {
+            Map<String, String> viewDefinitions = new LinkedHashMap<>();
+            for (String view : views) {
+                viewDefinitions.put(view, showCreate(statement, sourceSchema, "VIEW", view, 2)
+                        .replace(quoteIdentifier(sourceSchema) + ".", quoteIdentifier(targetSchema) + "."));
+            }
+            for (String view : JdbcSnapshotDumper.orderByDependency(viewDefinitions)) {
+                statement.execute(view);
+            }
+            for (String trigger : triggers(statement, sourceSchema)) {
+                statement.execute(showCreate(statement, sourceSchema, "TRIGGER", trigger, 3));
+            }
+        } finally {
+            if (catalog != null) {
+                connection.setCatalog(catalog);
+            }
+        }
+    }
+
+    private void copyTable(String sourceSchema, String targetSchema, String table, String autoIncrement) throws SQLException {
+        String source = quoteIdentifier(sourceSchema) + "." + quoteIdentifier(table);
+        String target = quoteIdentifier(targetSchema) + "." + quoteIdentifier(table);
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE " + target + " LIKE " + source);
+            copyRows(connection, statement, sourceSchema, table, source, target, autoIncrement);
+        }
+    }
+
+    private void reloadTable(String sourceSchema, String targetSchema, String table, String autoIncrement) throws SQLException {
+        String source = quoteIdentifier(sourceSchema) + "." + quoteIdentifier(table);
+        String target = quoteIdentifier(targetSchema) + "." + quoteIdentifier(table);
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("SET FOREIGN_KEY_CHECKS = 0");
+            try {
+                statement.execute("TRUNCATE TABLE " + target);
+                copyRows(connection, statement, sourceSchema, table, source, target, autoIncrement);
+            } finally {
+                statement.execute("SET FOREIGN_KEY_CHECKS = 1");
+            }
+        }
+    }
+
+    private static void copyRows(Connection connection, Statement statement, String sourceSchema, String table,
+                                 String source, String target, String autoIncrement) throws SQLException {
+        String columns = columnList(JdbcSnapshotDumper.insertableColumns(connection, sourceSchema, table));
+        statement.execute("SET @OLD_SQL_MODE=@@SQL_MODE, SQL_MODE='NO_AUTO_VALUE_ON_ZERO'");
+        try {
+            statement.execute("INSERT INTO " + target + " (" + columns + ") SELECT " + columns + " FROM " + source);
+        } finally {
+            statement.execute("SET SQL_MODE=@OLD_SQL_MODE");
+        }
+        if (autoIncrement != null) {
+            statement.execute("ALTER TABLE " + target + " AUTO_INCREMENT = " + autoIncrement);
+        }
+    }
+
+    private static void copyGrants(Connection connection, Statement statement, String sourceSchema, String targetSchema) throws SQLException {
+        int copied = 0;
+        for (String grantTable : new String[]{"db", "tables_priv"}) {
+            List<JdbcSnapshotDumper.DumpedColumn> grantColumns = JdbcSnapshotDumper.insertableColumns(connection, "mysql", grantTable);
+            StringBuilder selectList = new StringBuilder();
+            for (JdbcSnapshotDumper.DumpedColumn column : grantColumns) {
+                if (selectList.length() > 0) {
+                    selectList.append(',');
+                }
+                if ("Db".equalsIgnoreCase(column.getName())) {
+                    JdbcSnapshotDumper.appendString(selectList, targetSchema);
+                } else {
+                    selectList.append(quoteIdentifier(column.getName()));
+                }
+            }
+            StringBuilder copyGrants = new StringBuilder("REPLACE INTO `mysql`.").append(quoteIdentifier(grantTable))
+                    .append(" (").append(columnList(grantColumns)).append(") SELECT ").append(selectList)
+                    .append(" FROM `mysql`.").append(quoteIdentifier(grantTable)).append(" WHERE Db = ");
+            JdbcSnapshotDumper.appendString(copyGrants, sourceSchema);
+            copied += statement.executeUpdate(copyGrants.toString());
+        }
+        if (copied > 0) {
+            statement.execute("FLUSH PRIVILEGES");
+        }
+    }
+
+    private static String defaultCharacterSet(Connection connection, String schema) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT DEFAULT_CHARACTER_SET_NAME, DEFAULT_COLLATION_NAME FROM information_schema.SCHEMATA WHERE SCHEMA_NAME = ?")) {
+            statement.setString(1, schema);
+            try (ResultSet rows = statement.executeQuery()) {
+                if (!rows.next()) {
+                    throw new SQLException("Unable to clone schema " + schema + " as it does not exist");
+                }
+                return " CHARACTER SET " + rows.getString(1) + " COLLATE " + rows.getString(2);
+            }
+        }
+    }
+
+    private static String showCreate(Statement statement, String schema, String objectType, String name, int column) throws SQLException {
+        try (ResultSet rows = statement.executeQuery("SHOW CREATE " + objectType + " " + quoteIdentifier(schema) + "." + quoteIdentifier(name))) {
+            if (!rows.next()) {
+                throw new SQLException(format("Unable to read definition of %s %s.%s", objectType, schema, name));
+            }
+            return rows.getString(column);
+        }
+    }
+
+    private static List<String> triggers(Statement statement, String schema) throws SQLException {
+        List<String> triggers = new ArrayList<>();
+        try (ResultSet rows = statement.executeQuery("SHOW TRIGGERS FROM " + quoteIdentifier(schema))) {
+            while (rows.next()) {
+                triggers.add(rows.getString("Trigger"));
+            }
+        }
+        return triggers;
+    }
+
+    static String autoIncrement(String createTable) {
+        Matcher matcher = AUTO_INCREMENT.matcher(createTable);
+        String autoIncrement = null;
+        while (matcher.find()) {
+            autoIncrement = matcher.group(1);
+        }
+        return autoIncrement;
+    }
+
+    private static void await(String table, Future<?> copy) throws SQLException {
+        try {
+            copy.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while copying " + table, e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof SQLException ? (SQLException) e.getCause() : new SQLException("Failed to copy " + table, e.getCause());
+        }
+    }
+}
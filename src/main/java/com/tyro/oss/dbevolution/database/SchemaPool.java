@@ -0,0 +1,229 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import com.tyro.oss.dbevolution.DatabaseDetails;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+public class SchemaPool implements AutoCloseable {
+
+    private static final Log LOG = LogFactory.getLog(SchemaPool.class);
+    private static final PooledSchema FAILED = new PooledSchema(null, null);
+
+    private final DatabaseDetails databaseDetails;
+    private final DatabaseSnapshot snapshot;
+    private final DatabaseCreationStrategy templateCreationStrategy;
+    private final String migrationScriptsFilename;
+    private final RestoreOptions restoreOptions;
+    private final int size;
+    private final String templateSchemaName;
+    private final BlockingQueue<PooledSchema> readySchemas = new LinkedBlockingQueue<>();
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    private final AtomicReference<PooledSchema> currentLease = new AtomicReference<>();
+    private final DataSource leasedDataSource = new LeasedSchemaDataSource();
+    private final ExecutorService builder;
+
+    public SchemaPool(DatabaseDetails databaseDetails, DatabaseSnapshot snapshot, String migrationScriptsFilename, int size) {
+        this(databaseDetails, snapshot, new SnapshotAndLiquibaseMigrationStrategy(snapshot), migrationScriptsFilename, size, RestoreOptions.defaultRestoreOptions());
+    }
+
+    public SchemaPool(DatabaseDetails databaseDetails, DatabaseSnapshot snapshot, DatabaseCreationStrategy templateCreationStrategy,
+                      String migrationScriptsFilename, int size, RestoreOptions restoreOptions) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Schema pool size must be at least 1 but was " + size);
+        }
+        this.databaseDetails = databaseDetails;
+        this.snapshot = snapshot;
+        this.templateCreationStrategy = templateCreationStrategy;
+        this.migrationScriptsFilename = migrationScriptsFilename;
+        this.restoreOptions = restoreOptions;
+        this.size = size;
+        this.templateSchemaName = databaseDetails.getSchemaName() + TemplateSchemaCloningStrategy.TEMPLATE_SUFFIX;
+        this.builder = Executors.newSingleThreadExecutor(new BuilderThreadFactory());
+        this.builder.execute(this::createTemplateAndFillPool);
+    }
+
+    public PooledSchema lease() throws CommandExecutionException, InterruptedException {
+        return markLeased(readySchemas.take());
+    }
+
+    public PooledSchema lease(long timeout, TimeUnit unit) throws CommandExecutionException, InterruptedException {
+        PooledSchema schema = readySchemas.poll(timeout, unit);
+        if (schema == null) {
+            throw new CommandExecutionException(format("No pooled copy of %s was ready within %d ms", databaseDetails.getSchemaName(), unit.toMillis(timeout)));
+        }
+        return markLeased(schema);
+    }
+
+    public DataSource getDataSource() {
+        return leasedDataSource;
+    }
+
+    void release(PooledSchema schema) {
+        currentLease.compareAndSet(schema, null);
+        if (!builder.isShutdown()) {
+            builder.execute(() -> rebuild(schema));
+        }
+    }
+
+    @Override
+    public void close() {
+        builder.shutdownNow();
+        fail(new CommandExecutionException("Schema pool is closed"));
+    }
+
+    private PooledSchema markLeased(PooledSchema schema) throws CommandExecutionException {
+        if (schema == FAILED) {
+            readySchemas.add(FAILED);
+            throw new CommandExecutionException(failure.get());
+        }
+        schema.markLeased();
+        currentLease.set(schema);
+        LOG.debug("Leased " + schema.getDatabaseDetails().getSchemaName());
+        return schema;
+    }
+
+    private void fail(Exception e) {
+        if (failure.compareAndSet(null, e)) {
+            readySchemas.add(FAILED);
+        }
+    }
+
+    private void createTemplateAndFillPool() {
+        try {
+            templateCreationStrategy.createDatabase(databaseDetails, migrationScriptsFilename);
+            List<PooledSchema> schemas = new ArrayList<>();
+            List<MySqlDatabaseHelper> targets = new ArrayList<>();
+            targets.add(newDatabaseHelper(databaseDetails.withSchemaName(templateSchemaName)));
+            for (int i = 1; i <= size; i++) {
+                PooledSchema schema = new PooledSchema(this, databaseDetails.withSchemaName(databaseDetails.getSchemaName() + "_" + i));
+                schemas.add(schema);
+                targets.add(newDatabaseHelper(schema.getDatabaseDetails()));
+            }
+            long start = System.currentTimeMillis();
+            newDatabaseHelper(databaseDetails).copyDatabaseTo(targets, null);
+            readySchemas.addAll(schemas);
+            LOG.debug(format("Filled template and %d pooled schemas in %d ms", size, System.currentTimeMillis() - start));
+        } catch (Exception e) {
+            LOG.error("Failed to create template schema " + templateSchemaName, e);
+            fail(e);
+        }
+    }
+
+    private void rebuild(PooledSchema schema) {
+        long start = System.currentTimeMillis();
+        try {
+            newDatabaseHelper(schema.getDatabaseDetails()).dropAndRecreateDatabaseFromTemplate(templateSchemaName);
+            readySchemas.add(schema);
+            LOG.debug(format("Rebuilt %s in %d ms", schema.getDatabaseDetails().getSchemaName(), System.currentTimeMillis() - start));
+        } catch (Exception e) {
+            LOG.error("Failed to rebuild pooled schema " + schema.getDatabaseDetails().getSchemaName(), e);
+            fail(e);
+        }
+    }
+
+    private MySqlDatabaseHelper newDatabaseHelper(DatabaseDetails details) {
+        return new MySqlDatabaseHelper(details, snapshot.getSnapshotResource(), restoreOptions);
+    }
+
+    private class LeasedSchemaDataSource implements DataSource {
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return leasedSchemaDataSource().getConnection();
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return leasedSchemaDataSource().getConnection(username, password);
+        }
+
+        @Override
+        public PrintWriter getLogWriter() throws SQLException {
+            return leasedSchemaDataSource().getLogWriter();
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) throws SQLException {
+            leasedSchemaDataSource().setLogWriter(out);
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) throws SQLException {
+            leasedSchemaDataSource().setLoginTimeout(seconds);
+        }
+
+        @Override
+        public int getLoginTimeout() throws SQLException {
+            return leasedSchemaDataSource().getLoginTimeout();
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            return iface.isInstance(this) ? iface.cast(this) : leasedSchemaDataSource().unwrap(iface);
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) throws SQLException {
+            return iface.isInstance(this) || leasedSchemaDataSource().isWrapperFor(iface);
+        }
+
+        private DataSource leasedSchemaDataSource() throws SQLException {
+            PooledSchema schema = currentLease.get();
+            if (schema == null) {
+                throw new SQLException(format("No pooled copy of %s is leased", databaseDetails.getSchemaName()));
+            }
+            return newDatabaseHelper(schema.getDatabaseDetails()).getDataSource();
+        }
+    }
+
+    private static class BuilderThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "schema-pool-" + THREAD_NUMBER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static com.tyro.oss.dbevolution.database.JdbcSnapshotDumper.quoteIdentifier;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+class SchemaRenamingInputStream extends InputStream {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final InputStream script;
+    private final byte[] from;
+    private final byte[] to;
+    private byte[] carry = new byte[0];
+    private byte[] pending = new byte[0];
+    private int pendingPosition;
+    private boolean endOfScript;
+
+    SchemaRenamingInputStream(InputStream script, String fromSchema, String toSchema) {
+        this.script = script;
+        this.from = (quoteIdentifier(fromSchema) + ".").getBytes(UTF_8);
+        this.to = (quoteIdentifier(toSchema) + ".").getBytes(UTF_8);
+    }
+
+    static InputStream renameSchema(InputStream script, String fromSchema, String toSchema) {
+        if (fromSchema == null || fromSchema.equals(toSchema)) {
+            return script;
+        }
+        return new SchemaRenamingInputStream(script, fromSchema, toSchema);
+    }
+
+    static SnapshotPipeline.SnapshotConsumer renamingSchema(String fromSchema, String toSchema, SnapshotPipeline.SnapshotConsumer consumer) {
+        return snapshot -> consumer.consume(renameSchema(snapshot, fromSchema, toSchema));
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        while (pendingPosition == pending.length) {
+            if (endOfScript) {
+                return -1;
+            }
+            fill();
+        }
+        int read = Math.min(length, pending.length - pendingPosition);
+        System.arraycopy(pending, pendingPosition, buffer, offset, read);
+        pendingPosition += read;
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        script.close();
+    }
+
+    private void fill() throws IOException {
+        byte[] chunk = Arrays.copyOf(carry, carry.length + CHUNK_SIZE);
+        int length = carry.length;
+        int read = script.read(chunk, length, CHUNK_SIZE);
+        if (read == -1) {
+            endOfScript = true;
+        } else {
+            length += read;
+        }
+
+        ByteArrayOutputStream renamed = new ByteArrayOutputStream(length);
+        int searchable = endOfScript ? length : length - from.length + 1;
+        int position = 0;
+        while (position < searchable) {
+            if (matchesAt(chunk, position, length)) {
+                renamed.write(to, 0, to.length);
+                position += from.length;
+            } else {
+                renamed.write(chunk[position]);
+                position++;
+            }
+        }
+        carry = Arrays.copyOfRange(chunk, position, length);
+        pending = renamed.toByteArray();
+        pendingPosition = 0;
+    }
+
+    private boolean matchesAt(byte[] chunk, int position, int length) {
+        if (position + from.length > length) {
+            return false;
+        }
+        for (int i = 0; i < from.length; i++) {
+            if (chunk[position + i] != from[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import com.tyro.oss.dbevolution.DatabaseDetails;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ShadowSchemaSwapStrategy implements DatabaseCreationStrategy {
+
+    static final String SHADOW_SUFFIX = "_shadow";
+
+    private final DatabaseSnapshot snapshot;
+    private final DatabaseCreationStrategy templateCreationStrategy;
+    private final RestoreOptions restoreOptions;
+    private final ExecutorService shadowBuilder = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "shadow-schema-builder");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> shadowDatabase;
+
+    public ShadowSchemaSwapStrategy(DatabaseSnapshot snapshot) {
+        this(snapshot, RestoreOptions.defaultRestoreOptions().withThreads(Runtime.getRuntime().availableProcessors()));
+    }
+
+    public ShadowSchemaSwapStrategy(DatabaseSnapshot snapshot, RestoreOptions restoreOptions) {
+        this(snapshot, new SnapshotAndLiquibaseMigrationStrategy(snapshot, restoreOptions), restoreOptions);
+    }
+
+    public ShadowSchemaSwapStrategy(DatabaseSnapshot snapshot, DatabaseCreationStrategy templateCreationStrategy, RestoreOptions restoreOptions) {
+        this.snapshot = snapshot;
+        this.templateCreationStrategy = templateCreationStrategy;
+        this.restoreOptions = restoreOptions;
+    }
+
+    @Override
+    public void createDatabase(DatabaseDetails databaseDetails, String migrationScriptsFilename) throws Exception {
+        MySqlDatabaseHelper databaseHelper = new MySqlDatabaseHelper(databaseDetails, snapshot.getSnapshotResource(), restoreOptions);
+        String templateSchemaName = databaseDetails.getSchemaName() + TemplateSchemaCloningStrategy.TEMPLATE_SUFFIX;
+        String shadowSchemaName = databaseDetails.getSchemaName() + SHADOW_SUFFIX;
+
+        if (shadowDatabase == null) {
+            templateCreationStrategy.createDatabase(databaseDetails, migrationScriptsFilename);
+            databaseHelper.copyDatabaseToTemplate(templateSchemaName);
+        } else {
+            try {
+                awaitShadowDatabase();
+                databaseHelper.swapInShadowDatabase(templateSchemaName, shadowSchemaName);
+            } finally {
+                shadowDatabase = null;
+            }
+        }
+        shadowDatabase = shadowBuilder.submit(() -> {
+            databaseHelper.prepareShadowDatabase(templateSchemaName, shadowSchemaName);
+            return null;
+        });
+    }
+
+    private void awaitShadowDatabase() throws Exception {
+        try {
+            shadowDatabase.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+}
@@ -21,44 +21,77 @@ import liquibase.database.jvm.JdbcConnection;
 import liquibase.resource.ClassLoaderResourceAccessor;
 
 import java.io.File;
-import java.io.IOException;
 import java.sql.Connection;
 
 public class SnapshotAndLiquibaseMigrationStrategy implements DatabaseCreationStrategy {
 
     private final DatabaseSnapshot snapshot;
-    private final File migratedSnapshotFile;
-    private boolean temporarySnapshotPopulated;
+    private final MigratedSnapshotCache migratedSnapshotCache;
+    private final RestoreOptions restoreOptions;
+    private File migratedSnapshotFile;
+    private String migratedSnapshotSchemaName;
 
     public SnapshotAndLiquibaseMigrationStrategy(DatabaseSnapshot snapshot) {
+        this(snapshot, RestoreOptions.defaultRestoreOptions());
+    }
+
+    public SnapshotAndLiquibaseMigrationStrategy(DatabaseSnapshot snapshot, RestoreOptions restoreOptions) {
+        this(snapshot, MigratedSnapshotCache.defaultCache(), restoreOptions);
+    }
+
+    public SnapshotAndLiquibaseMigrationStrategy(DatabaseSnapshot snapshot, MigratedSnapshotCache migratedSnapshotCache) {
+        this(snapshot, migratedSnapshotCache, RestoreOptions.defaultRestoreOptions());
+    }
+
+    public SnapshotAndLiquibaseMigrationStrategy(DatabaseSnapshot snapshot, MigratedSnapshotCache migratedSnapshotCache, RestoreOptions restoreOptions) {
         this.snapshot = snapshot;
-        try {
-            this.migratedSnapshotFile = File.createTempFile("migrated.snapshot." + snapshot.getSnapshotResource().getFilename(), ".xml");
-            this.migratedSnapshotFile.deleteOnExit();
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to create temp file to hold migrated snapshot", e);
-        }
+        this.migratedSnapshotCache = migratedSnapshotCache;
+        this.restoreOptions = restoreOptions;
     }
 
     @Override
     public void createDatabase(DatabaseDetails databaseDetails, String migrationScriptsFilename) throws Exception {
-        DatabaseHelper databaseHelper = DatabaseHelperFactory.newInstance(databaseDetails, snapshot.getSnapshotResource());
+        MySqlDatabaseHelper databaseHelper = new MySqlDatabaseHelper(databaseDetails, snapshot.getSnapshotResource(), restoreOptions);
 
-        if (temporarySnapshotPopulated) {
-            databaseHelper.dropAndRecreateDatabaseFromSnapshotThatIsAlreadyOnDisk(migratedSnapshotFile);
-        } else {
-            loadUnmigratedSnaphostAndMigrateUsingLiquibase(databaseHelper, migrationScriptsFilename);
-            saveTemporarySnapshotToSaveRemigrating(databaseHelper);
+        if (migratedSnapshotFile != null && !migratedSnapshotCache.markUsed(migratedSnapshotFile)) {
+            migratedSnapshotFile = null;
         }
+        if (migratedSnapshotFile == null) {
+            MigrationFingerprint fingerprint = migratedSnapshotCache.isEnabled()
+                    ? migratedSnapshotCache.fingerprint(snapshot.getSnapshotResource(), migrationScriptsFilename, databaseDetails.getSchemaName())
+                    : null;
+            migratedSnapshotFile = migratedSnapshotCache.find(fingerprint);
+            if (migratedSnapshotFile == null) {
+                File partiallyMigratedSnapshotFile = migratedSnapshotCache.findPartiallyMigrated(fingerprint);
+                if (partiallyMigratedSnapshotFile != null) {
+                    loadPartiallyMigratedSnapshotAndApplyNewChangeSets(databaseHelper, partiallyMigratedSnapshotFile, migrationScriptsFilename);
+                } else {
+                    loadUnmigratedSnaphostAndMigrateUsingLiquibase(databaseHelper, migrationScriptsFilename);
+                }
+                saveMigratedSnapshotToSaveRemigrating(databaseHelper, fingerprint);
+                return;
+            }
+            migratedSnapshotSchemaName = migratedSnapshotCache.schemaNameOf(migratedSnapshotFile);
+        }
+        databaseHelper.dropAndRecreateDatabaseFromSnapshotThatIsAlreadyOnDisk(migratedSnapshotFile, migratedSnapshotSchemaName);
+    }
+
+    private void saveMigratedSnapshotToSaveRemigrating(DatabaseHelper databaseHelper, MigrationFingerprint fingerprint) throws Exception {
+        migratedSnapshotFile = migratedSnapshotCache.store(fingerprint, snapshotFile -> databaseHelper.createSnapshot(snapshotFile, true));
+        migratedSnapshotSchemaName = databaseHelper.getDatabaseDetails().getSchemaName();
     }
 
-    private void saveTemporarySnapshotToSaveRemigrating(DatabaseHelper databaseHelper) throws CommandExecutionException, IOException {
-        databaseHelper.createSnapshot(migratedSnapshotFile, true);
-        temporarySnapshotPopulated = true;
+    private void loadPartiallyMigratedSnapshotAndApplyNewChangeSets(MySqlDatabaseHelper databaseHelper, File partiallyMigratedSnapshotFile, String migrationScriptsFilename) throws Exception {
+        databaseHelper.dropAndRecreateDatabaseFromSnapshotThatIsAlreadyOnDisk(partiallyMigratedSnapshotFile, migratedSnapshotCache.schemaNameOf(partiallyMigratedSnapshotFile));
+        migrateUsingLiquibase(databaseHelper, migrationScriptsFilename);
     }
 
     private void loadUnmigratedSnaphostAndMigrateUsingLiquibase(DatabaseHelper databaseHelper, String migrationScriptsFilename) throws Exception {
         databaseHelper.dropAndRecreateDatabaseFromSnapshot();
+        migrateUsingLiquibase(databaseHelper, migrationScriptsFilename);
+    }
+
+    private void migrateUsingLiquibase(DatabaseHelper databaseHelper, String migrationScriptsFilename) throws Exception {
         try (Connection connection = databaseHelper.getDataSource().getConnection()) {
             Liquibase liquibase = new Liquibase(migrationScriptsFilename, new ClassLoaderResourceAccessor(), new JdbcConnection(connection));
             liquibase.update("test");
@@ -69,4 +102,3 @@ public class SnapshotAndLiquibaseMigrationStrategy implements DatabaseCreationSt
         return migratedSnapshotFile;
     }
 }
-
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+import org.apache.commons.compress.compressors.xz.XZUtils;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.util.Arrays.stream;
+import static org.apache.commons.lang3.StringUtils.endsWithIgnoreCase;
+
+public enum SnapshotCompression {
+
+    NONE("") {
+        @Override
+        public InputStream decompress(InputStream compressed) {
+            return compressed;
+        }
+
+        @Override
+        public OutputStream compress(OutputStream uncompressed) {
+            return uncompressed;
+        }
+    },
+
+    GZIP(".gz") {
+        @Override
+        public InputStream decompress(InputStream compressed) throws IOException {
+            return new GZIPInputStream(compressed, BUFFER_SIZE);
+        }
+
+        @Override
+        public OutputStream compress(OutputStream uncompressed) throws IOException {
+            return new GZIPOutputStream(uncompressed, BUFFER_SIZE) {
+                {
+                    def.setLevel(Deflater.BEST_SPEED);
+                }
+            };
+        }
+    },
+
+    ZSTD(".zst") {
+        @Override
+        public InputStream decompress(InputStream compressed) throws IOException {
+            requireZstd();
+            return new BufferedInputStream(new ZstdCompressorInputStream(compressed), BUFFER_SIZE);
+        }
+
+        @Override
+        public OutputStream compress(OutputStream uncompressed) throws IOException {
+            requireZstd();
+            return new BufferedOutputStream(new ZstdCompressorOutputStream(uncompressed, 3), BUFFER_SIZE);
+        }
+
+        private void requireZstd() throws IOException {
+            if (!ZstdUtils.isZstdCompressionAvailable()) {
+                throw new IOException("Zstandard snapshots need com.github.luben:zstd-jni on the classpath");
+            }
+        }
+    },
+
+    XZ(".xz") {
+        @Override
+        public InputStream decompress(InputStream compressed) throws IOException {
+            requireXz();
+            return new BufferedInputStream(new XZCompressorInputStream(compressed, true), BUFFER_SIZE);
+        }
+
+        @Override
+        public OutputStream compress(OutputStream uncompressed) throws IOException {
+            requireXz();
+            return new BufferedOutputStream(new XZCompressorOutputStream(uncompressed, 1), BUFFER_SIZE);
+        }
+
+        private void requireXz() throws IOException {
+            if (!XZUtils.isXZCompressionAvailable()) {
+                throw new IOException("XZ snapshots need org.tukaani:xz on the classpath");
+            }
+        }
+    };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String extension;
+
+    SnapshotCompression(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public abstract InputStream decompress(InputStream compressed) throws IOException;
+
+    public abstract OutputStream compress(OutputStream uncompressed) throws IOException;
+
+    public static SnapshotCompression forFilename(String filename) {
+        return stream(values())
+                .filter(compression -> compression != NONE && filename != null && endsWithIgnoreCase(filename, compression.extension))
+                .findFirst()
+                .orElse(NONE);
+    }
+}
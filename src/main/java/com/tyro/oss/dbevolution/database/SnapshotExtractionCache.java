@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.core.io.Resource;
+
+import java.io.*;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.util.jar.JarEntry;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+public class SnapshotExtractionCache {
+
+    private static final Log LOG = LogFactory.getLog(SnapshotExtractionCache.class);
+    private static final SnapshotExtractionCache DEFAULT_CACHE = new SnapshotExtractionCache(new File(MigratedSnapshotCache.baseCacheDirectory(), "snapshots"));
+
+    private final File cacheDirectory;
+
+    public SnapshotExtractionCache(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    public static SnapshotExtractionCache defaultCache() {
+        return DEFAULT_CACHE;
+    }
+
+    public InputStream open(Resource snapshot) throws IOException {
+        if (snapshot.isFile()) {
+            return new FileInputStream(snapshot.getFile());
+        }
+
+        String contentKey = contentKey(snapshot);
+        if (contentKey == null) {
+            return snapshot.getInputStream();
+        }
+
+        File cachedSnapshot = new File(cacheDirectory, contentKey);
+        if (cachedSnapshot.isFile()) {
+            LOG.debug("Reading snapshot " + snapshot.getFilename() + " from extracted copy " + cachedSnapshot);
+            return new FileInputStream(cachedSnapshot);
+        }
+        return extractWhileReading(snapshot, cachedSnapshot);
+    }
+
+    private InputStream extractWhileReading(Resource snapshot, File cachedSnapshot) throws IOException {
+        if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+            LOG.debug("Unable to create snapshot cache directory " + cacheDirectory + ". Reading snapshot directly.");
+            return snapshot.getInputStream();
+        }
+        File partialCopy = File.createTempFile(cachedSnapshot.getName(), ".partial", cacheDirectory);
+        LOG.debug("Extracting snapshot " + snapshot.getFilename() + " to " + cachedSnapshot + " while it is read");
+        return new ExtractingInputStream(snapshot.getInputStream(), partialCopy, cachedSnapshot);
+    }
+
+    private static String contentKey(Resource snapshot) throws IOException {
+        URL url = snapshot.getURL();
+        if (!"jar".equals(url.getProtocol())) {
+            return null;
+        }
+        URLConnection connection = url.openConnection();
+        if (!(connection instanceof JarURLConnection)) {
+            return null;
+        }
+        JarEntry entry = ((JarURLConnection) connection).getJarEntry();
+        if (entry == null || entry.getCrc() == -1 || entry.getSize() == -1) {
+            return null;
+        }
+        return entry.getSize() + "-" + Long.toHexString(entry.getCrc()) + "-" + snapshot.getFilename();
+    }
+
+    private static class ExtractingInputStream extends TeeInputStream {
+
+        private final File partialCopy;
+        private final File cachedSnapshot;
+        private boolean fullyRead;
+
+        ExtractingInputStream(InputStream snapshot, File partialCopy, File cachedSnapshot) throws IOException {
+            super(snapshot, new BufferedOutputStream(new FileOutputStream(partialCopy), 64 * 1024), true);
+            this.partialCopy = partialCopy;
+            this.cachedSnapshot = cachedSnapshot;
+        }
+
+        @Override
+        protected void afterRead(int n) throws IOException {
+            super.afterRead(n);
+            if (n == IOUtils.EOF) {
+                fullyRead = true;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (!fullyRead) {
+                    read();
+                }
+                super.close();
+                if (fullyRead) {
+                    Files.move(partialCopy.toPath(), cachedSnapshot.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(partialCopy.toPath());
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+public class SnapshotLoadStatistics {
+
+    private final long statementCount;
+    private final long batchCount;
+    private final long bytesRead;
+    private final long elapsedNanos;
+
+    public SnapshotLoadStatistics(long statementCount, long batchCount, long bytesRead, long elapsedNanos) {
+        this.statementCount = statementCount;
+        this.batchCount = batchCount;
+        this.bytesRead = bytesRead;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getStatementCount() {
+        return statementCount;
+    }
+
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getElapsedMillis() {
+        return NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    public double getStatementsPerSecond() {
+        return perSecond(statementCount);
+    }
+
+    public double getBytesPerSecond() {
+        return perSecond(bytesRead);
+    }
+
+    private double perSecond(long count) {
+        return elapsedNanos == 0 ? 0 : count * 1_000_000_000d / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return format("%d statements in %d batches, %d bytes in %d ms (%.0f statements/s, %.1f MB/s)",
+                statementCount, batchCount, bytesRead, getElapsedMillis(), getStatementsPerSecond(), getBytesPerSecond() / (1024 * 1024));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.String.format;
+
+public class SnapshotPipeline {
+
+    private static final Log LOG = LogFactory.getLog(SnapshotPipeline.class);
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+    static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private final int bufferSize;
+    private final List<SnapshotConsumer> consumers = new ArrayList<>();
+
+    public SnapshotPipeline() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public SnapshotPipeline(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public SnapshotPipeline to(SnapshotConsumer consumer) {
+        consumers.add(consumer);
+        return this;
+    }
+
+    public void run(SnapshotProducer producer) throws CommandExecutionException {
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, consumers.size()), runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-pipeline-" + THREAD_NUMBER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<?>> consumptions = new ArrayList<>();
+        Exception producerFailure = null;
+        try {
+            List<OutputStream> pipes = new ArrayList<>();
+            for (SnapshotConsumer consumer : consumers) {
+                PipedInputStream input = new PipedInputStream(bufferSize);
+                pipes.add(new PipedOutputStream(input));
+                consumptions.add(executor.submit(() -> {
+                    try (InputStream snapshot = input) {
+                        consumer.consume(snapshot);
+                    }
+                    return null;
+                }));
+            }
+            try (OutputStream snapshot = new BufferedOutputStream(new FanOutOutputStream(pipes), 64 * 1024)) {
+                producer.produce(snapshot);
+            }
+        } catch (Exception e) {
+            producerFailure = e;
+        }
+        Exception consumerFailure = null;
+        for (Future<?> consumption : consumptions) {
+            try {
+                consumption.get();
+            } catch (ExecutionException e) {
+                consumerFailure = consumerFailure == null ? (Exception) e.getCause() : consumerFailure;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                consumerFailure = consumerFailure == null ? e : consumerFailure;
+            }
+        }
+        executor.shutdownNow();
+        // a failed consumer closes its pipe, which surfaces in the producer as a less useful "Pipe closed"
+        Exception failure = consumerFailure != null ? consumerFailure : producerFailure;
+        if (failure != null) {
+            LOG.error("Error piping snapshot", failure);
+            throw failure instanceof CommandExecutionException ? (CommandExecutionException) failure : new CommandExecutionException(failure);
+        }
+        LOG.info(format("Piped snapshot to %d consumers in %d ms", consumers.size(), System.currentTimeMillis() - start));
+    }
+
+    public interface SnapshotProducer {
+        void produce(OutputStream snapshot) throws Exception;
+    }
+
+    public interface SnapshotConsumer {
+        void consume(InputStream snapshot) throws Exception;
+    }
+
+    private static class FanOutOutputStream extends OutputStream {
+
+        private final List<OutputStream> outputs;
+
+        FanOutOutputStream(List<OutputStream> outputs) {
+            this.outputs = outputs;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            for (OutputStream output : outputs) {
+                output.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            for (OutputStream output : outputs) {
+                output.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            for (OutputStream output : outputs) {
+                output.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (OutputStream output : outputs) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    failure = failure == null ? e : failure;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.startsWithIgnoreCase;
+
+public class SqlScriptReader implements Closeable {
+
+    private static final String DEFAULT_DELIMITER = ";";
+    private static final String DELIMITER_COMMAND = "delimiter";
+
+    private final BufferedReader reader;
+    private final Deque<String> completedStatements = new ArrayDeque<>();
+    private final StringBuilder statement = new StringBuilder();
+
+    private String delimiter = DEFAULT_DELIMITER;
+    private char quote;
+    private boolean inBlockComment;
+    private boolean keepBlockComment;
+    private boolean endOfScript;
+    private long lineNumber;
+
+    public SqlScriptReader(Reader reader) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader, 64 * 1024);
+    }
+
+    public String nextStatement() throws IOException {
+        while (completedStatements.isEmpty() && !endOfScript) {
+            String line = reader.readLine();
+            if (line == null) {
+                endOfScript = true;
+                completeStatement();
+            } else {
+                lineNumber++;
+                parseLine(line);
+            }
+        }
+        return completedStatements.poll();
+    }
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void parseLine(String line) {
+        if (quote == 0 && !inBlockComment && isBlank(statement) && isDelimiterCommand(line)) {
+            delimiter = line.trim().substring(DELIMITER_COMMAND.length()).trim();
+            return;
+        }
+
+        int length = line.length();
+        int i = 0;
+        while (i < length) {
+            char c = line.charAt(i);
+            if (inBlockComment) {
+                if (c == '*' && i + 1 < length && line.charAt(i + 1) == '/') {
+                    inBlockComment = false;
+                    if (keepBlockComment) {
+                        statement.append("*/");
+                    }
+                    i += 2;
+                    continue;
+                }
+                if (keepBlockComment) {
+                    statement.append(c);
+                }
+                i++;
+            } else if (quote != 0) {
+                statement.append(c);
+                if (c == '\\' && quote != '`' && i + 1 < length) {
+                    statement.append(line.charAt(i + 1));
+                    i += 2;
+                    continue;
+                }
+                if (c == quote) {
+                    quote = 0;
+                }
+                i++;
+            } else if (line.startsWith(delimiter, i)) {
+                completeStatement();
+                i += delimiter.length();
+            } else if (c == '#' || isLineComment(line, i)) {
+                break;
+            } else if (c == '/' && i + 1 < length && line.charAt(i + 1) == '*') {
+                inBlockComment = true;
+                keepBlockComment = i + 2 < length && (line.charAt(i + 2) == '!' || line.charAt(i + 2) == '+');
+                if (keepBlockComment) {
+                    statement.append("/*");
+                } else {
+                    statement.append(' ');
+                }
+                i += 2;
+            } else {
+                if (c == '\'' || c == '"' || c == '`') {
+                    quote = c;
+                }
+                statement.append(c);
+                i++;
+            }
+        }
+
+        if (quote != 0 || !isBlank(statement)) {
+            statement.append('\n');
+        }
+    }
+
+    private void completeStatement() {
+        String sql = statement.toString().trim();
+        statement.setLength(0);
+        if (!sql.isEmpty()) {
+            completedStatements.add(sql);
+        }
+    }
+
+    private static boolean isDelimiterCommand(String line) {
+        String trimmed = line.trim();
+        return startsWithIgnoreCase(trimmed, DELIMITER_COMMAND)
+                && trimmed.length() > DELIMITER_COMMAND.length()
+                && Character.isWhitespace(trimmed.charAt(DELIMITER_COMMAND.length()));
+    }
+
+    private static boolean isLineComment(String line, int i) {
+        return line.startsWith("--", i) && (i + 2 == line.length() || Character.isWhitespace(line.charAt(i + 2)));
+    }
+}
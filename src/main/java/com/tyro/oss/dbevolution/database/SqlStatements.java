@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+final class SqlStatements {
+
+    private static final Set<String> QUERY_KEYWORDS = new HashSet<>(Arrays.asList("SELECT", "SHOW", "DESCRIBE", "DESC", "EXPLAIN", "WITH", "CALL", "HELP"));
+    private static final Set<String> IMPLICIT_COMMIT_KEYWORDS = new HashSet<>(Arrays.asList(
+            "ALTER", "CREATE", "DROP", "RENAME", "TRUNCATE", "GRANT", "REVOKE", "LOCK", "UNLOCK", "BEGIN", "START", "COMMIT",
+            "ANALYZE", "OPTIMIZE", "REPAIR", "FLUSH", "RESET", "INSTALL", "UNINSTALL", "CACHE", "XA"));
+    private static final Pattern AUTOCOMMIT_ON = Pattern.compile("\\bAUTOCOMMIT\\s*:?=\\s*(?:1|ON|TRUE)\\b", Pattern.CASE_INSENSITIVE);
+    private static final Set<String> INSERT_MODIFIERS = new HashSet<>(Arrays.asList("LOW_PRIORITY", "DELAYED", "HIGH_PRIORITY", "IGNORE", "INTO"));
+
+    private SqlStatements() {
+    }
+
+    static String firstKeyword(String sql) {
+        return keyword(sql, 0);
+    }
+
+    static String keyword(String sql, int index) {
+        String[] keywords = leadingKeywords(sql, index + 1);
+        return keywords.length > index ? keywords[index] : "";
+    }
+
+    static String[] leadingKeywords(String sql, int count) {
+        String[] keywords = new String[count];
+        int found = 0;
+        int i = 0;
+        while (found < count && (i = nextKeywordStart(sql, i)) < sql.length()) {
+            int start = i;
+            i = keywordEnd(sql, start);
+            keywords[found++] = sql.substring(start, i).toUpperCase(Locale.ROOT);
+        }
+        return Arrays.copyOf(keywords, found);
+    }
+
+    static boolean returnsResults(String sql) {
+        return QUERY_KEYWORDS.contains(firstKeyword(sql));
+    }
+
+    static boolean endsTransaction(String sql) {
+        String[] keywords = leadingKeywords(sql, 3);
+        String keyword = keywords.length > 0 ? keywords[0] : "";
+        String secondKeyword = keywords.length > 1 ? keywords[1] : "";
+        if (keyword.equals("CREATE") || keyword.equals("DROP")) {
+            return !secondKeyword.equals("TEMPORARY");
+        }
+        if (keyword.equals("ROLLBACK")) {
+            return !secondKeyword.equals("TO") && !(secondKeyword.equals("WORK") && keywords.length > 2 && keywords[2].equals("TO"));
+        }
+        if (keyword.equals("SET")) {
+            return AUTOCOMMIT_ON.matcher(sql).find();
+        }
+        return IMPLICIT_COMMIT_KEYWORDS.contains(keyword);
+    }
+
+    static String insertTarget(String sql) {
+        int i = keywordEnd(sql, nextKeywordStart(sql, 0));
+        int next = nextKeywordStart(sql, i);
+        while (next < sql.length() && INSERT_MODIFIERS.contains(sql.substring(next, keywordEnd(sql, next)).toUpperCase(Locale.ROOT))) {
+            i = keywordEnd(sql, next);
+            next = nextKeywordStart(sql, i);
+        }
+        return identifierAt(sql, i);
+    }
+
+    static String identifierAfterFirstKeyword(String sql) {
+        return identifierAfterKeywords(sql, 1);
+    }
+
+    static String identifierAfterKeywords(String sql, int count) {
+        int i = 0;
+        for (int keyword = 0; keyword < count; keyword++) {
+            i = keywordEnd(sql, nextKeywordStart(sql, i));
+        }
+        return identifierAt(sql, i);
+    }
+
+    static String identifierAt(String sql, int start) {
+        int i = start;
+        while (i < sql.length() && Character.isWhitespace(sql.charAt(i))) {
+            i++;
+        }
+        StringBuilder identifier = new StringBuilder();
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (c == '`') {
+                int end = sql.indexOf('`', i + 1);
+                while (end >= 0 && end + 1 < sql.length() && sql.charAt(end + 1) == '`') {
+                    end = sql.indexOf('`', end + 2);
+                }
+                if (end < 0) {
+                    break;
+                }
+                identifier.append(sql, i + 1, end);
+                i = end + 1;
+            } else if (Character.isLetterOrDigit(c) || c == '_' || c == '$') {
+                identifier.append(c);
+                i++;
+            } else if (c == '.') {
+                identifier.setLength(0);
+                i++;
+            } else {
+                break;
+            }
+        }
+        return identifier.toString().replace("``", "`");
+    }
+
+    private static int nextKeywordStart(String sql, int from) {
+        int length = sql.length();
+        int i = from;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c) || c == '(') {
+                i++;
+            } else if (sql.startsWith("/*!", i) || sql.startsWith("/*+", i)) {
+                i += 3;
+                while (i < length && Character.isDigit(sql.charAt(i))) {
+                    i++;
+                }
+            } else if (sql.startsWith("/*", i)) {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else if (sql.startsWith("*/", i)) {
+                i += 2;
+            } else if (Character.isLetter(c) || c == '_') {
+                return i;
+            } else {
+                return length;
+            }
+        }
+        return length;
+    }
+
+    private static int keywordEnd(String sql, int start) {
+        int i = start;
+        while (i < sql.length() && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_')) {
+            i++;
+        }
+        return i;
+    }
+}
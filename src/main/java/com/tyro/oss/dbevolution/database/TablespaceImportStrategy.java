@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import com.tyro.oss.dbevolution.DatabaseDetails;
+
+import java.io.File;
+
+public class TablespaceImportStrategy implements DatabaseCreationStrategy {
+
+    private final DatabaseSnapshot snapshot;
+    private final DatabaseCreationStrategy exportedDatabaseCreationStrategy;
+    private final RestoreOptions restoreOptions;
+    private Boolean tablespacesExported;
+
+    public TablespaceImportStrategy(DatabaseSnapshot snapshot) {
+        this(snapshot, RestoreOptions.defaultRestoreOptions().withThreads(Runtime.getRuntime().availableProcessors()));
+    }
+
+    public TablespaceImportStrategy(DatabaseSnapshot snapshot, RestoreOptions restoreOptions) {
+        this(snapshot, new SnapshotAndLiquibaseMigrationStrategy(snapshot, restoreOptions), restoreOptions);
+    }
+
+    public TablespaceImportStrategy(DatabaseSnapshot snapshot, DatabaseCreationStrategy exportedDatabaseCreationStrategy, RestoreOptions restoreOptions) {
+        this.snapshot = snapshot;
+        this.exportedDatabaseCreationStrategy = exportedDatabaseCreationStrategy;
+        this.restoreOptions = restoreOptions;
+    }
+
+    @Override
+    public void createDatabase(DatabaseDetails databaseDetails, String migrationScriptsFilename) throws Exception {
+        MySqlDatabaseHelper databaseHelper = new MySqlDatabaseHelper(databaseDetails, snapshot.getSnapshotResource(), restoreOptions);
+        File exportDirectory = new File(new File(MigratedSnapshotCache.baseCacheDirectory(), "tablespaces"), databaseDetails.getSchemaName());
+
+        if (tablespacesExported == null) {
+            exportedDatabaseCreationStrategy.createDatabase(databaseDetails, migrationScriptsFilename);
+            tablespacesExported = databaseHelper.exportTablespaces(exportDirectory);
+        } else if (tablespacesExported) {
+            databaseHelper.importTablespaces(exportDirectory);
+        } else {
+            exportedDatabaseCreationStrategy.createDatabase(databaseDetails, migrationScriptsFilename);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static com.tyro.oss.dbevolution.database.JdbcSnapshotDumper.quoteIdentifier;
+import static java.lang.String.format;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+public class TablespaceTransporter {
+
+    private static final Log LOG = LogFactory.getLog(TablespaceTransporter.class);
+
+    static final String SCHEMA_FILE = "schema.sql";
+    static final String TABLES_FILE = "tables.txt";
+
+    private final DataSource dataSource;
+    private final String schemaName;
+    private final int threads;
+
+    public TablespaceTransporter(DataSource dataSource, String schemaName, int threads) {
+        this.dataSource = dataSource;
+        this.schemaName = schemaName;
+        this.threads = threads;
+    }
+
+    public boolean exportTablespaces(File directory) throws CommandExecutionException {
+        long start = System.currentTimeMillis();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            List<String> tables = new ArrayList<>();
+            String reason = listTransportableTables(connection, tables);
+            Path schemaDirectory = schemaDirectory(connection);
+            if (reason == null && schemaDirectory == null) {
+                reason = "the schema name cannot be mapped to a directory";
+            }
+            if (reason != null) {
+                LOG.warn(format("Unable to transport the tablespaces of %s because %s", schemaName, reason));
+                return false;
+            }
+
+            Path exportDirectory = directory.toPath();
+            Files.createDirectories(exportDirectory);
+            if (!tables.isEmpty()) {
+                statement.execute("FLUSH TABLES " + qualifiedTables(tables) + " FOR EXPORT");
+                try {
+                    if (!Files.isReadable(schemaDirectory.resolve(tablespaceFileName(tables.get(0)) + ".cfg"))) {
+                        LOG.warn(format("Unable to transport the tablespaces of %s because %s is not readable from this machine", schemaName, schemaDirectory));
+                        return false;
+                    }
+                    for (String table : tables) {
+                        copyTablespaceFiles(table, schemaDirectory, exportDirectory);
+                    }
+                } finally {
+                    statement.execute("UNLOCK TABLES");
+                }
+            }
+            Files.write(exportDirectory.resolve(TABLES_FILE), tables);
+            LOG.info(format("Exported %d tablespaces of %s to %s in %d ms", tables.size(), schemaName, directory, System.currentTimeMillis() - start));
+            return true;
+        } catch (SQLException | IOException e) {
+            throw new CommandExecutionException(e);
+        }
+    }
+
+    public void importTablespaces(File directory) throws CommandExecutionException {
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (Connection connection = dataSource.getConnection()) {
+            Path exportDirectory = directory.toPath();
+            Path schemaDirectory = schemaDirectory(connection);
+            List<String> tables = Files.readAllLines(exportDirectory.resolve(TABLES_FILE));
+            Map<String, Future<?>> imports = new LinkedHashMap<>();
+            for (String table : tables) {
+                imports.put(table, executor.submit(() -> {
+                    importTablespace(table, exportDirectory, schemaDirectory);
+                    return null;
+                }));
+            }
+            for (Map.Entry<String, Future<?>> tablespaceImport : imports.entrySet()) {
+                await(tablespaceImport.getKey(), tablespaceImport.getValue());
+            }
+            LOG.info(format("Imported %d tablespaces into %s in %d ms", tables.size(), schemaName, System.currentTimeMillis() - start));
+        } catch (SQLException | IOException e) {
+            throw new CommandExecutionException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void importTablespace(String table, Path exportDirectory, Path schemaDirectory) throws SQLException, IOException {
+        String qualifiedTable = quoteIdentifier(schemaName) + "." + quoteIdentifier(table);
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("SET FOREIGN_KEY_CHECKS = 0");
+            try {
+                statement.execute("ALTER TABLE " + qualifiedTable + " DISCARD TABLESPACE");
+                copyTablespaceFiles(table, exportDirectory, schemaDirectory);
+                statement.execute("ALTER TABLE " + qualifiedTable + " IMPORT TABLESPACE");
+                Files.deleteIfExists(schemaDirectory.resolve(tablespaceFileName(table) + ".cfg"));
+            } finally {
+                statement.execute("SET FOREIGN_KEY_CHECKS = 1");
+            }
+        }
+    }
+
+    private String listTransportableTables(Connection connection, List<String> tables) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT @@innodb_file_per_table")) {
+            if (!rows.next() || !rows.getBoolean(1)) {
+                return "innodb_file_per_table is disabled";
+            }
+        }
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT TABLE_NAME, ENGINE, CREATE_OPTIONS FROM information_schema.TABLES WHERE TABLE_SCHEMA = ? AND TABLE_TYPE = 'BASE TABLE' ORDER BY TABLE_NAME")) {
+            statement.setString(1, schemaName);
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    String table = rows.getString(1);
+                    if (!"InnoDB".equalsIgnoreCase(rows.getString(2))) {
+                        return table + " is not an InnoDB table";
+                    }
+                    if (rows.getString(3) != null && rows.getString(3).toLowerCase(Locale.ROOT).contains("partitioned")) {
+                        return table + " is partitioned";
+                    }
+                    if (tablespaceFileName(table) == null) {
+                        return "the name of " + table + " cannot be mapped to a file";
+                    }
+                    tables.add(table);
+                }
+            }
+        }
+        return null;
+    }
+
+    private Path schemaDirectory(Connection connection) throws SQLException {
+        String directoryName = tablespaceFileName(schemaName);
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT @@datadir")) {
+            rows.next();
+            return directoryName == null ? null : Paths.get(rows.getString(1), directoryName);
+        }
+    }
+
+    private String qualifiedTables(List<String> tables) {
+        return tables.stream()
+                .map(table -> quoteIdentifier(schemaName) + "." + quoteIdentifier(table))
+                .collect(Collectors.joining(", "));
+    }
+
+    private static void copyTablespaceFiles(String table, Path from, Path to) throws IOException {
+        String fileName = tablespaceFileName(table);
+        Files.copy(from.resolve(fileName + ".ibd"), to.resolve(fileName + ".ibd"), REPLACE_EXISTING);
+        Files.copy(from.resolve(fileName + ".cfg"), to.resolve(fileName + ".cfg"), REPLACE_EXISTING);
+    }
+
+    static String tablespaceFileName(String identifier) {
+        StringBuilder fileName = new StringBuilder();
+        for (char c : identifier.toCharArray()) {
+            if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_') {
+                fileName.append(c);
+            } else if (c < 0x80) {
+                fileName.append(format("@%04x", (int) c));
+            } else {
+                return null;
+            }
+        }
+        return fileName.toString();
+    }
+
+    private static void await(String table, Future<?> tablespaceImport) throws SQLException {
+        try {
+            tablespaceImport.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while importing " + table, e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof SQLException ? (SQLException) e.getCause() : new SQLException("Failed to import " + table, e.getCause());
+        }
+    }
+}
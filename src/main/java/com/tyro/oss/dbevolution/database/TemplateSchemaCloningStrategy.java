@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import com.tyro.oss.dbevolution.DatabaseDetails;
+
+public class TemplateSchemaCloningStrategy implements DatabaseCreationStrategy {
+
+    static final String TEMPLATE_SUFFIX = "_template";
+
+    private final DatabaseSnapshot snapshot;
+    private final DatabaseCreationStrategy templateCreationStrategy;
+    private final RestoreOptions restoreOptions;
+    private boolean templateCreated;
+
+    public TemplateSchemaCloningStrategy(DatabaseSnapshot snapshot) {
+        this(snapshot, RestoreOptions.defaultRestoreOptions().withThreads(Runtime.getRuntime().availableProcessors()));
+    }
+
+    public TemplateSchemaCloningStrategy(DatabaseSnapshot snapshot, RestoreOptions restoreOptions) {
+        this(snapshot, new SnapshotAndLiquibaseMigrationStrategy(snapshot, restoreOptions), restoreOptions);
+    }
+
+    public TemplateSchemaCloningStrategy(DatabaseSnapshot snapshot, DatabaseCreationStrategy templateCreationStrategy, RestoreOptions restoreOptions) {
+        this.snapshot = snapshot;
+        this.templateCreationStrategy = templateCreationStrategy;
+        this.restoreOptions = restoreOptions;
+    }
+
+    @Override
+    public void createDatabase(DatabaseDetails databaseDetails, String migrationScriptsFilename) throws Exception {
+        MySqlDatabaseHelper databaseHelper = new MySqlDatabaseHelper(databaseDetails, snapshot.getSnapshotResource(), restoreOptions);
+        String templateSchemaName = databaseDetails.getSchemaName() + TEMPLATE_SUFFIX;
+
+        if (!templateCreated) {
+            templateCreationStrategy.createDatabase(databaseDetails, migrationScriptsFilename);
+            databaseHelper.copyDatabaseToTemplate(templateSchemaName);
+            templateCreated = true;
+            return;
+        }
+        databaseHelper.dropAndRecreateDatabaseFromTemplate(templateSchemaName);
+    }
+}
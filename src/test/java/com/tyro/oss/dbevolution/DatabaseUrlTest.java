@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DatabaseUrlTest {
+
+    @Test
+    void shouldReplaceSchemaNameAndKeepParameters() {
+        DatabaseUrl databaseUrl = new DatabaseUrl("jdbc:mysql://localhost:3306/app?useSSL=false&serverTimezone=UTC");
+
+        assertEquals("app", databaseUrl.getSchemaName());
+        assertEquals("jdbc:mysql://localhost:3306/app_1?useSSL=false&serverTimezone=UTC", databaseUrl.withSchemaName("app_1"));
+    }
+
+    @Test
+    void shouldReplaceSchemaNameInUrlWithoutParameters() {
+        assertEquals("jdbc:mysql://localhost/app_template", new DatabaseUrl("jdbc:mysql://localhost/app").withSchemaName("app_template"));
+    }
+
+    @Test
+    void shouldReplaceSchemaNameInVersionTaggedTestcontainersUrl() {
+        assertEquals("jdbc:tc:mysql:5.7.22://localhost/app_1?TC_REUSABLE=true",
+                new DatabaseUrl("jdbc:tc:mysql:5.7.22://localhost/app?TC_REUSABLE=true").withSchemaName("app_1"));
+    }
+
+    @Test
+    void shouldRecogniseTestcontainersUrls() {
+        assertTrue(new DatabaseUrl("jdbc:tc:mysql://localhost/app").isTestcontainers());
+        assertFalse(new DatabaseUrl("jdbc:mysql://localhost/app").isTestcontainers());
+    }
+}
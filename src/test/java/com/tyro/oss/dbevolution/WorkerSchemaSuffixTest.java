@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class WorkerSchemaSuffixTest {
+
+    @Test
+    void shouldSuffixSchemaBySurefireForkOrGradleWorker() {
+        Properties properties = new Properties();
+        assertEquals("", WorkerSchemaSuffix.fromProperties(properties));
+
+        properties.setProperty(WorkerSchemaSuffix.GRADLE_WORKER_PROPERTY, "7");
+        assertEquals("_worker7", WorkerSchemaSuffix.fromProperties(properties));
+
+        properties.setProperty(WorkerSchemaSuffix.SUREFIRE_FORK_NUMBER_PROPERTY, "${surefire.forkNumber}");
+        assertEquals("_worker7", WorkerSchemaSuffix.fromProperties(properties));
+
+        properties.setProperty(WorkerSchemaSuffix.SUREFIRE_FORK_NUMBER_PROPERTY, "3");
+        assertEquals("_fork3", WorkerSchemaSuffix.fromProperties(properties));
+
+        properties.setProperty(WorkerSchemaSuffix.SUFFIX_PROPERTY, "_ci");
+        assertEquals("_ci", WorkerSchemaSuffix.fromProperties(properties));
+    }
+
+    @Test
+    void shouldApplySuffixOnceAndCreateTheSuffixedSchema() {
+        String url = WorkerSchemaSuffix.applyTo("jdbc:tc:mysql://localhost/test?serverTimezone=UTC", "_fork2");
+
+        assertEquals("jdbc:tc:mysql://localhost/test_fork2?serverTimezone=UTC&createDatabaseIfNotExist=true", url);
+        assertEquals(url, WorkerSchemaSuffix.applyTo(url, "_fork2"));
+        assertEquals("jdbc:mysql://localhost/app", WorkerSchemaSuffix.applyTo("jdbc:mysql://localhost/app", ""));
+    }
+
+    @Test
+    void shouldRemoveTheSuffixToFindTheSharedSchemaName() {
+        assertEquals("test", WorkerSchemaSuffix.removeFrom("test_fork2", "_fork2"));
+        assertEquals("test_fork1", WorkerSchemaSuffix.removeFrom("test_fork1", "_fork2"));
+        assertEquals("test", WorkerSchemaSuffix.removeFrom("test", ""));
+    }
+}
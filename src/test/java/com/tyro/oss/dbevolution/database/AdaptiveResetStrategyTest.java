@@ -0,0 +1,52 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class AdaptiveResetStrategyTest {
+
+    @Test
+    void shouldTryUnmeasuredResetsFirstThenPreferTheFastestEstimate() throws Exception {
+        SchemaReset dirtyTables = new DirtyTableReset();
+        SchemaReset truncateAll = new TruncateAndReseedReset();
+        SchemaReset templateClone = new TemplateCloneReset();
+        AdaptiveResetStrategy strategy = new AdaptiveResetStrategy(null, null, null, asList(dirtyTables, truncateAll, templateClone));
+        Map<String, Long> rowCounts = new HashMap<>();
+        rowCounts.put("customer", 1_000_000L);
+        rowCounts.put("country", 99L);
+        ResetContext fewRowsDirty = new ResetContext(null, null, null, "app_template", rowCounts, singleton("country"));
+        ResetContext manyRowsDirty = new ResetContext(null, null, null, "app_template", rowCounts, singleton("customer"));
+        ResetContext untracked = new ResetContext(null, null, null, "app_template", rowCounts, null);
+
+        strategy.recordLatency(templateClone, 1_000_002L, 500);
+        assertEquals(asList(dirtyTables, truncateAll, templateClone), strategy.rankResets(fewRowsDirty));
+
+        strategy.recordLatency(dirtyTables, 100L, 10);
+        strategy.recordLatency(truncateAll, 1_000_002L, 2_000);
+        assertEquals(asList(dirtyTables, templateClone, truncateAll), strategy.rankResets(fewRowsDirty));
+        assertEquals(asList(templateClone, truncateAll, dirtyTables), strategy.rankResets(manyRowsDirty));
+        assertEquals(asList(templateClone, truncateAll), strategy.rankResets(untracked));
+    }
+}
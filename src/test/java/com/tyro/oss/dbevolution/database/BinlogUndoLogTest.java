@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.Serializable;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class BinlogUndoLogTest {
+
+    @Test
+    void shouldInvertRowChangesUsingPrimaryKeyAndSkippingGeneratedColumns() {
+        BinlogUndoLog.TableColumns columns = new BinlogUndoLog.TableColumns();
+        columns.add("id", "int", false, true, false, true);
+        columns.add("name", "varchar", false, false, false, false);
+        columns.add("upper_name", "varchar", false, false, true, false);
+        Serializable[] before = {1, "old".getBytes(), "OLD".getBytes()};
+        Serializable[] after = {1, "new".getBytes(), "NEW".getBytes()};
+
+        assertEquals("DELETE FROM `app`.`customer` WHERE `id` <=> ? LIMIT 1",
+                BinlogUndoLog.inverseStatement("app", "customer", RowChange.Type.INSERT, columns));
+        assertEquals("UPDATE `app`.`customer` SET `id` = ?, `name` = ? WHERE `id` <=> ? LIMIT 1",
+                BinlogUndoLog.inverseStatement("app", "customer", RowChange.Type.UPDATE, columns));
+        assertEquals("INSERT INTO `app`.`customer` (`id`, `name`) VALUES (?, ?)",
+                BinlogUndoLog.inverseStatement("app", "customer", RowChange.Type.DELETE, columns));
+        assertEquals(asList(1, before[1], 1), BinlogUndoLog.inverseParameters(RowChange.updated("customer", before, after), columns));
+    }
+
+    @Test
+    void shouldConvertBinlogValuesToJdbcValues() {
+        assertEquals(255, BinlogUndoLog.jdbcValue("tinyint", true, -1));
+        assertEquals(4294967295L, BinlogUndoLog.jdbcValue("int", true, -1));
+        assertEquals(new BigInteger("18446744073709551615"), BinlogUndoLog.jdbcValue("bigint", true, -1L));
+        assertEquals(-1L, BinlogUndoLog.jdbcValue("bigint", false, -1L));
+        assertEquals("2020-02-29 13:45:30.250", BinlogUndoLog.jdbcValue("datetime", false, 1582983930250L));
+        assertEquals("0000-00-00 00:00:00", BinlogUndoLog.jdbcValue("datetime", false, -1L));
+        assertEquals("-25:00:01.000", BinlogUndoLog.jdbcValue("time", false, -90001000L));
+    }
+
+    @Test
+    void shouldApplyInversesInReverseOrderAndStopAtTheFirstThatMatchesNoRow() throws Exception {
+        BinlogUndoLog.TableColumns columns = new BinlogUndoLog.TableColumns();
+        columns.add("created", "datetime", false, false, false, false);
+        RowChange first = RowChange.inserted("event", new Serializable[]{1582983930250L});
+        RowChange second = RowChange.deleted("event", new Serializable[]{1582983930250L});
+        RowChange third = RowChange.inserted("event", new Serializable[]{1582983930250L});
+        List<String> executed = new ArrayList<>();
+
+        RowChange unmatched = BinlogUndoLog.applyInverse(connectionReturningUpdateCounts(executed, 1, 0, 1),
+                "app", asList(first, second, third), singletonMap("event", columns));
+
+        assertSame(second, unmatched);
+        assertEquals(asList(
+                "DELETE FROM `app`.`event` WHERE `created` <=> ? LIMIT 1",
+                "INSERT INTO `app`.`event` (`created`) VALUES (?)"), executed);
+    }
+
+    @Test
+    void shouldReportNoUnmatchedChangeWhenEveryInverseMatchesOneRow() throws Exception {
+        BinlogUndoLog.TableColumns columns = new BinlogUndoLog.TableColumns();
+        columns.add("id", "int", false, true, false, true);
+        List<String> executed = new ArrayList<>();
+
+        assertNull(BinlogUndoLog.applyInverse(connectionReturningUpdateCounts(executed, 1, 1), "app",
+                asList(RowChange.inserted("customer", new Serializable[]{1}), RowChange.deleted("customer", new Serializable[]{2})),
+                singletonMap("customer", columns)));
+        assertEquals(2, executed.size());
+    }
+
+    private static Connection connectionReturningUpdateCounts(List<String> executed, int... updateCounts) {
+        ClassLoader classLoader = BinlogUndoLogTest.class.getClassLoader();
+        return (Connection) Proxy.newProxyInstance(classLoader, new Class<?>[]{Connection.class}, (connection, connectionMethod, connectionArgs) -> {
+            if (!"prepareStatement".equals(connectionMethod.getName())) {
+                return null;
+            }
+            executed.add((String) connectionArgs[0]);
+            int updateCount = updateCounts[executed.size() - 1];
+            return Proxy.newProxyInstance(classLoader, new Class<?>[]{PreparedStatement.class},
+                    (statement, method, args) -> "executeUpdate".equals(method.getName()) ? updateCount : null);
+        });
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import com.mysql.cj.jdbc.JdbcStatement;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ColumnarSnapshotLoaderTest {
+
+    private final List<String> executed = new ArrayList<>();
+    private final List<String> loadedData = new ArrayList<>();
+    private Driver driver;
+
+    @BeforeEach
+    void registerDriver() throws Exception {
+        driver = proxy(Driver.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "acceptsURL":
+                    return ((String) args[0]).startsWith("jdbc:fake:");
+                case "connect":
+                    return proxy(Connection.class, this::connection);
+                default:
+                    return defaultValue(method);
+            }
+        });
+        DriverManager.registerDriver(driver);
+    }
+
+    @AfterEach
+    void deregisterDriver() throws Exception {
+        DriverManager.deregisterDriver(driver);
+    }
+
+    @Test
+    void shouldLoadTableDataThroughTheDefaultPool() throws Exception {
+        ConnectionPool pool = new DbcpConnectionPool(ConnectionPoolSettings.forUrl("jdbc:fake:app", "app", "app"));
+        try {
+            new ColumnarSnapshotLoader(pool.getDataSource(), "app").load(snapshot("data/customer.tsv", "text:id\ttext:name\n1\tAlice\n"));
+        } finally {
+            pool.close();
+        }
+
+        assertTrue(executed.get(executed.size() - 1).startsWith("LOAD DATA LOCAL INFILE 'data/customer.tsv' INTO TABLE `customer`"));
+        assertEquals("1\tAlice\n", loadedData.get(0));
+    }
+
+    private Object connection(Object connection, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "createStatement":
+                return proxy(JdbcStatement.class, this::statement);
+            case "getAutoCommit":
+                return true;
+            default:
+                return defaultValue(method);
+        }
+    }
+
+    private Object statement(Object statement, Method method, Object[] args) throws Exception {
+        switch (method.getName()) {
+            case "setLocalInfileInputStream":
+                loadedData.add(IOUtils.toString((InputStream) args[0], UTF_8));
+                return null;
+            case "execute":
+                executed.add((String) args[0]);
+                return false;
+            case "executeQuery":
+                return proxy(ResultSet.class, (resultSet, resultSetMethod, resultSetArgs) ->
+                        "next".equals(resultSetMethod.getName()) ? true : defaultValue(resultSetMethod));
+            default:
+                return defaultValue(method);
+        }
+    }
+
+    private static InputStream snapshot(String entryName, String content) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes, UTF_8)) {
+            zip.putNextEntry(new ZipEntry(entryName));
+            zip.write(content.getBytes(UTF_8));
+            zip.closeEntry();
+        }
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        return type == long.class ? 0L : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(ColumnarSnapshotLoaderTest.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.junit.jupiter.api.Test;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ColumnarSnapshotTest {
+
+    @Test
+    void shouldEscapeFieldsSoTheyCanBeSplitAgain() {
+        StringBuilder line = new StringBuilder();
+        ColumnarSnapshot.appendField(line, "tab\there");
+        line.append('\t');
+        ColumnarSnapshot.appendField(line, "new\nline \\ slash");
+
+        assertEquals("tab\\there\tnew\\nline \\\\ slash", line.toString());
+        assertEquals(asList("tab\there", "new\nline \\ slash"), ColumnarSnapshot.splitFields(line.toString()));
+    }
+
+    @Test
+    void shouldConvertHexAndBitColumnsThroughUserVariables() {
+        String header = "text:id\thex:photo\tbit:flags";
+
+        assertEquals("LOAD DATA LOCAL INFILE 'data/Person.tsv' INTO TABLE `Person` CHARACTER SET utf8mb4 " +
+                        "FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n' (`id`, @column1, @column2) " +
+                        "SET `photo` = UNHEX(@column1), `flags` = CAST(CONV(@column2, 16, 10) AS UNSIGNED)",
+                ColumnarSnapshot.loadDataStatement("Person", header));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConnectionPoolTest {
+
+    @Test
+    void shouldCountBorrowsAndReportConnectionsHeldPastTheLeakThreshold() throws Exception {
+        ConnectionPoolSettings settings = ConnectionPoolSettings.forUrl("jdbc:mysql://localhost/app", "app", "app").withLeakDetectionMillis(1);
+        ConnectionPool pool = new FakeConnectionPool(settings);
+
+        pool.getDataSource().getConnection().close();
+        Connection leaked = pool.getDataSource().getConnection();
+        Thread.sleep(5);
+
+        ConnectionPoolMetrics metrics = pool.getMetrics();
+        assertEquals(2, metrics.getBorrowCount());
+        assertEquals(1, metrics.getLeakedConnections());
+        assertEquals(1, pool.getMetrics().getLeakedConnections());
+        leaked.close();
+    }
+
+    @Test
+    void shouldNotReportConnectionsWhenLeakDetectionIsOff() throws Exception {
+        ConnectionPool pool = new FakeConnectionPool(ConnectionPoolSettings.forUrl("jdbc:mysql://localhost/app", "app", "app"));
+
+        Connection held = pool.getDataSource().getConnection();
+        Thread.sleep(5);
+
+        assertEquals(0, pool.getMetrics().getLeakedConnections());
+        held.close();
+    }
+
+    @Test
+    void shouldNotReportConnectionsExemptFromLeakDetection() throws Exception {
+        ConnectionPoolSettings settings = ConnectionPoolSettings.forUrl("jdbc:mysql://localhost/app", "app", "app").withLeakDetectionMillis(1);
+        ConnectionPool pool = new FakeConnectionPool(settings);
+
+        Connection cached = pool.getDataSource().getConnection();
+        pool.exemptFromLeakDetection(cached);
+        Thread.sleep(5);
+
+        assertEquals(0, pool.getMetrics().getLeakedConnections());
+        cached.close();
+    }
+
+    @Test
+    void shouldUnwrapThePreJdbc4DbcpDataSource() throws Exception {
+        ConnectionPool pool = new DbcpConnectionPool(ConnectionPoolSettings.forUrl("jdbc:mysql://localhost/app", "app", "app"));
+
+        assertTrue(pool.getDataSource().isWrapperFor(BasicDataSource.class));
+        assertFalse(pool.getDataSource().isWrapperFor(Connection.class));
+        assertNotNull(pool.getDataSource().unwrap(BasicDataSource.class));
+        assertThrows(SQLException.class, () -> pool.getDataSource().unwrap(Connection.class));
+        pool.close();
+    }
+
+    private static class FakeConnectionPool extends ConnectionPool {
+
+        private final DataSource dataSource = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{DataSource.class},
+                (dataSourceProxy, dataSourceMethod, dataSourceArgs) -> Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                        (proxy, method, args) -> null));
+
+        FakeConnectionPool(ConnectionPoolSettings settings) {
+            super(settings);
+        }
+
+        @Override
+        public int getMaxSize() {
+            return settings.getMaxSize();
+        }
+
+        @Override
+        public void setMaxSize(int maxSize) {
+        }
+
+        @Override
+        public int getActiveConnections() {
+            return 0;
+        }
+
+        @Override
+        public int getIdleConnections() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        protected DataSource pooledDataSource() {
+            return dataSource;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DeferredIndexBuilderTest {
+
+    @Test
+    void shouldStripSecondaryIndexesAndForeignKeysFromCreateTable() {
+        String createTable = "CREATE TABLE `ExampleTable` (\n" +
+                "  `id` bigint(20) NOT NULL AUTO_INCREMENT,\n" +
+                "  `column1` varchar(255) DEFAULT 'a, (b)',\n" +
+                "  `column2` bigint(20) DEFAULT NULL,\n" +
+                "  PRIMARY KEY (`id`),\n" +
+                "  UNIQUE KEY `idx_column1` (`column1`),\n" +
+                "  KEY `idx_column2` (`column2`),\n" +
+                "  CONSTRAINT `fk_column2` FOREIGN KEY (`column2`) REFERENCES `Other` (`id`)\n" +
+                ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
+
+        assertEquals("CREATE TABLE `ExampleTable` (\n" +
+                        "  `id` bigint(20) NOT NULL AUTO_INCREMENT,\n" +
+                        "  `column1` varchar(255) DEFAULT 'a, (b)',\n" +
+                        "  `column2` bigint(20) DEFAULT NULL,\n" +
+                        "  PRIMARY KEY (`id`)\n" +
+                        ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4",
+                new DeferredIndexBuilder(1).rewrite(createTable));
+    }
+
+    @Test
+    void shouldKeepIndexRequiredByAutoIncrementColumnThatIsNotThePrimaryKey() {
+        String createTable = "CREATE TABLE `Sequence` (\n" +
+                "  `name` varchar(20) NOT NULL,\n" +
+                "  `value` int NOT NULL AUTO_INCREMENT,\n" +
+                "  PRIMARY KEY (`name`),\n" +
+                "  KEY `idx_value` (`value`)\n" +
+                ")";
+
+        assertEquals(createTable, new DeferredIndexBuilder(1).rewrite(createTable));
+    }
+
+    @Test
+    void shouldLeaveOtherStatementsUntouched() {
+        String insert = "INSERT INTO `ExampleTable` VALUES (1,'KEY (x)',2)";
+
+        assertEquals(insert, new DeferredIndexBuilder(1).rewrite(insert));
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EmbeddedMySqlServerTest {
+
+    @Test
+    void shouldStartWithDurabilityOffAndOnlyListenOnTheChosenLoopbackPort() {
+        File baseDirectory = new File("/dev/shm/dbevolution-mysqld-1");
+        List<String> arguments = EmbeddedMySqlServer.serverArguments(new File("/usr/sbin/mysqld"), baseDirectory, 33061, false);
+
+        assertTrue(arguments.contains("--no-defaults"));
+        assertTrue(arguments.contains("--datadir=" + new File(baseDirectory, "data").getAbsolutePath()));
+        assertTrue(arguments.contains("--port=33061"));
+        assertTrue(arguments.contains("--bind-address=127.0.0.1"));
+        assertTrue(arguments.contains("--loose-mysqlx=OFF"));
+        assertTrue(arguments.contains("--innodb-flush-log-at-trx-commit=0"));
+        assertTrue(arguments.contains("--sync-binlog=0"));
+        assertFalse(arguments.contains("--skip-log-bin"));
+        assertTrue(arguments.contains("--binlog-format=ROW"));
+        assertTrue(arguments.contains("--binlog-row-image=FULL"));
+        assertTrue(arguments.contains("--performance-schema=ON"));
+        assertFalse(arguments.contains("--user=root"));
+        assertTrue(EmbeddedMySqlServer.serverArguments(new File("/usr/sbin/mysqld"), baseDirectory, 33061, true).contains("--user=root"));
+    }
+}
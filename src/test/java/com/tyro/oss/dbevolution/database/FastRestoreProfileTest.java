@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class FastRestoreProfileTest {
+
+    @Test
+    void shouldEstimateTimeSavedAgainstTheLastLoadWithoutFastRestore() {
+        FastRestoreProfile.resetBaseline();
+        SnapshotLoadStatistics fastLoad = new SnapshotLoadStatistics(100, 10, 4_000_000, MILLISECONDS.toNanos(1_000));
+        assertEquals(OptionalLong.empty(), FastRestoreProfile.estimateMillisSaved(fastLoad));
+
+        FastRestoreProfile.recordBaseline(new SnapshotLoadStatistics(50, 5, 2_000_000, MILLISECONDS.toNanos(1_500)));
+        assertEquals(OptionalLong.of(2_000), FastRestoreProfile.estimateMillisSaved(fastLoad));
+    }
+
+    @Test
+    void shouldRestoreTheGlobalsItLoweredWhenTheLastProfileCloses() {
+        Map<String, String> globals = serverDefaults();
+
+        FastRestoreProfile first = FastRestoreProfile.apply(serverWithGlobals(globals));
+        FastRestoreProfile second = FastRestoreProfile.apply(serverWithGlobals(globals));
+        assertEquals(FastRestoreProfile.GLOBAL_SETTINGS, globals);
+
+        second.close();
+        assertEquals(FastRestoreProfile.GLOBAL_SETTINGS, globals);
+        first.close();
+        assertEquals(serverDefaults(), globals);
+    }
+
+    @Test
+    void shouldNotRecordGlobalsAlreadyLoweredByAnotherJvmAsOriginal() {
+        Map<String, String> globals = new HashMap<>(FastRestoreProfile.GLOBAL_SETTINGS);
+
+        FastRestoreProfile.apply(serverWithGlobals(globals)).close();
+
+        assertEquals(FastRestoreProfile.GLOBAL_SETTINGS, globals);
+    }
+
+    @Test
+    void shouldNotRestoreGlobalsChangedByAnotherJvmDuringTheRestore() {
+        Map<String, String> globals = serverDefaults();
+
+        FastRestoreProfile profile = FastRestoreProfile.apply(serverWithGlobals(globals));
+        globals.put("sync_binlog", "1");
+        globals.put("innodb_flush_log_at_trx_commit", "0");
+        profile.close();
+
+        assertEquals("1", globals.get("sync_binlog"));
+        assertEquals("0", globals.get("innodb_flush_log_at_trx_commit"));
+        assertEquals(serverDefaults().get("bulk_insert_buffer_size"), globals.get("bulk_insert_buffer_size"));
+    }
+
+    private static Map<String, String> serverDefaults() {
+        Map<String, String> globals = new HashMap<>();
+        globals.put("innodb_flush_log_at_trx_commit", "1");
+        globals.put("sync_binlog", "1");
+        globals.put("bulk_insert_buffer_size", "8388608");
+        return globals;
+    }
+
+    private static DataSource serverWithGlobals(Map<String, String> globals) {
+        Pattern select = Pattern.compile("SELECT @@GLOBAL\\.(\\w+)");
+        Pattern set = Pattern.compile("SET GLOBAL (\\w+) = (\\w+)");
+        return proxy(DataSource.class, (dataSource, dataSourceMethod, dataSourceArgs) -> proxy(Connection.class, (connection, connectionMethod, connectionArgs) ->
+                !"createStatement".equals(connectionMethod.getName()) ? null : proxy(Statement.class, (statement, method, args) -> {
+                    if ("executeQuery".equals(method.getName())) {
+                        Matcher variable = select.matcher((String) args[0]);
+                        String value = variable.matches() ? globals.get(variable.group(1)) : null;
+                        boolean[] read = {false};
+                        return proxy(ResultSet.class, (resultSet, resultSetMethod, resultSetArgs) -> {
+                            switch (resultSetMethod.getName()) {
+                                case "next":
+                                    return !read[0] && (read[0] = true);
+                                case "getString":
+                                    return value;
+                                default:
+                                    return null;
+                            }
+                        });
+                    }
+                    if ("execute".equals(method.getName())) {
+                        Matcher setting = set.matcher((String) args[0]);
+                        if (setting.matches()) {
+                            globals.put(setting.group(1), setting.group(2));
+                        }
+                        return false;
+                    }
+                    return null;
+                })));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(FastRestoreProfileTest.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class JdbcSnapshotDumperTest {
+
+    @Test
+    void shouldEscapeStringsSoTheScriptReaderKeepsThemIntact() throws IOException {
+        StringBuilder insert = new StringBuilder("INSERT INTO `t` VALUES (");
+        JdbcSnapshotDumper.appendString(insert, "it's a \\ test;\n-- not a comment");
+        insert.append(',');
+        JdbcSnapshotDumper.appendHex(insert, new byte[]{0x00, 0x7f, (byte) 0xff});
+        insert.append(");");
+
+        SqlScriptReader reader = new SqlScriptReader(new StringReader(insert.toString()));
+
+        assertEquals("INSERT INTO `t` VALUES ('it\\'s a \\\\ test;\\n-- not a comment',0x007fff)", reader.nextStatement());
+    }
+
+    @Test
+    void shouldOrderViewsAfterTheViewsTheyReference() {
+        Map<String, String> views = new LinkedHashMap<>();
+        views.put("outer_view", "CREATE VIEW `outer_view` AS select * from `schema`.`inner_view`");
+        views.put("inner_view", "CREATE VIEW `inner_view` AS select * from `schema`.`table`");
+
+        assertEquals(asList(views.get("inner_view"), views.get("outer_view")), JdbcSnapshotDumper.orderByDependency(views));
+    }
+}
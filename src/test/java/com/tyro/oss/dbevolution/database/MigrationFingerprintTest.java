@@ -0,0 +1,61 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.junit.jupiter.api.Test;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MigrationFingerprintTest {
+
+    @Test
+    void shouldBeIncrementalUpdateWhenChangeSetsAreAppended() {
+        MigrationFingerprint previous = new MigrationFingerprint("base", asList("changeSet1", "changeSet2"));
+        MigrationFingerprint current = new MigrationFingerprint("base", asList("changeSet1", "changeSet2", "changeSet3"));
+
+        assertTrue(current.isIncrementalUpdateOf(previous));
+        assertFalse(previous.isIncrementalUpdateOf(current));
+        assertNotEquals(previous.getKey(), current.getKey());
+    }
+
+    @Test
+    void shouldNotBeIncrementalUpdateWhenEarlierChangeSetOrBaseSnapshotChanged() {
+        MigrationFingerprint previous = new MigrationFingerprint("base", asList("changeSet1", "changeSet2"));
+
+        assertFalse(new MigrationFingerprint("base", asList("changeSet1", "changeSet2-modified", "changeSet3")).isIncrementalUpdateOf(previous));
+        assertFalse(new MigrationFingerprint("other", asList("changeSet1", "changeSet2", "changeSet3")).isIncrementalUpdateOf(previous));
+    }
+
+    @Test
+    void shouldNotShareKeysBetweenChangeSetListsWithTheSameConcatenation() {
+        MigrationFingerprint split = new MigrationFingerprint("base", asList("changeSet1", MigrationFingerprint.RUN_ALWAYS_MARKER + "changeSet2"));
+        MigrationFingerprint joined = new MigrationFingerprint("base", asList("changeSet1" + MigrationFingerprint.RUN_ALWAYS_MARKER, "changeSet2"));
+
+        assertNotEquals(split.getKey(), joined.getKey());
+        assertNotEquals(new MigrationFingerprint("base", asList("changeSet1")).getKey(), new MigrationFingerprint("basechangeSet1", asList()).getKey());
+    }
+
+    @Test
+    void shouldNotBeIncrementalUpdateOfSnapshotWithRunAlwaysChangeSet() {
+        MigrationFingerprint previous = new MigrationFingerprint("base", asList("changeSet1" + MigrationFingerprint.RUN_ALWAYS_MARKER));
+        MigrationFingerprint current = new MigrationFingerprint("base", asList("changeSet1" + MigrationFingerprint.RUN_ALWAYS_MARKER, "changeSet2"));
+
+        assertFalse(current.isIncrementalUpdateOf(previous));
+    }
+}
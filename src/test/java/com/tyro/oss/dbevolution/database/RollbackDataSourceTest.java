@@ -0,0 +1,177 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RollbackDataSourceTest {
+
+    private final List<String> calls = new ArrayList<>();
+    private RollbackDataSource rollbackDataSource;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        rollbackDataSource = new RollbackDataSource(recordingDataSource());
+        rollbackDataSource.begin();
+        calls.clear();
+    }
+
+    @Test
+    void shouldRollBackToTheLastCommitOfTheConnection() throws Exception {
+        Connection connection = rollbackDataSource.getConnection();
+        connection.setAutoCommit(false);
+        connection.createStatement().execute("INSERT INTO customer VALUES (1)");
+        connection.commit();
+        connection.createStatement().execute("INSERT INTO customer VALUES (2)");
+        connection.rollback();
+        connection.close();
+
+        assertEquals(asList(
+                "SAVEPOINT 1",
+                "RELEASE 1", "SAVEPOINT 2",
+                "INSERT INTO customer VALUES (1)",
+                "RELEASE 2", "SAVEPOINT 3",
+                "INSERT INTO customer VALUES (2)",
+                "ROLLBACK TO 3"), calls);
+        assertTrue(rollbackDataSource.rollback());
+        assertEquals("ROLLBACK", calls.get(calls.size() - 2));
+    }
+
+    @Test
+    void shouldKeepAutoCommitAndReadOnlyPerConnection() throws Exception {
+        Connection first = rollbackDataSource.getConnection();
+        first.setAutoCommit(false);
+        first.setReadOnly(true);
+
+        Connection second = rollbackDataSource.getConnection();
+
+        assertFalse(first.getAutoCommit());
+        assertTrue(first.isReadOnly());
+        assertTrue(second.getAutoCommit());
+        assertFalse(second.isReadOnly());
+    }
+
+    @Test
+    void shouldKeepTheOuterTransactionStartWhenANestedConnectionCommits() throws Exception {
+        Connection outer = rollbackDataSource.getConnection();
+        outer.setAutoCommit(false);
+        outer.createStatement().execute("INSERT INTO customer VALUES (1)");
+
+        Connection inner = rollbackDataSource.getConnection();
+        inner.setAutoCommit(false);
+        inner.createStatement().execute("INSERT INTO audit VALUES (1)");
+        inner.commit();
+        inner.close();
+
+        outer.rollback();
+
+        assertEquals(asList(
+                "SAVEPOINT 1",
+                "RELEASE 1", "SAVEPOINT 2",
+                "INSERT INTO customer VALUES (1)",
+                "SAVEPOINT 3",
+                "RELEASE 3", "SAVEPOINT 4",
+                "INSERT INTO audit VALUES (1)",
+                "RELEASE 4", "SAVEPOINT 5",
+                "ROLLBACK TO 2"), calls);
+    }
+
+    @Test
+    void shouldNotReleaseSavepointsThatANestedConnectionStillNeeds() throws Exception {
+        Connection outer = rollbackDataSource.getConnection();
+        Connection inner = rollbackDataSource.getConnection();
+
+        outer.commit();
+        inner.rollback();
+
+        assertEquals(asList("SAVEPOINT 1", "SAVEPOINT 2", "SAVEPOINT 3", "ROLLBACK TO 2", "SAVEPOINT 4"), calls);
+    }
+
+    @Test
+    void shouldReportThatStatementsEndingTheTransactionCannotBeRolledBack() throws Exception {
+        Connection connection = rollbackDataSource.getConnection();
+        connection.setAutoCommit(false);
+        connection.createStatement().execute("CREATE TABLE audit (id INT)");
+        connection.rollback();
+
+        assertEquals(asList(
+                "SAVEPOINT 1",
+                "RELEASE 1", "SAVEPOINT 2",
+                "CREATE TABLE audit (id INT)",
+                "SAVEPOINT 3",
+                "ROLLBACK TO 3"), calls);
+        assertFalse(rollbackDataSource.rollback());
+    }
+
+    @Test
+    void shouldNotTreatTemporaryTablesAsEndingTheTransaction() throws Exception {
+        rollbackDataSource.getConnection().createStatement().execute("CREATE TEMPORARY TABLE scratch (id INT)");
+
+        assertTrue(rollbackDataSource.rollback());
+    }
+
+    private DataSource recordingDataSource() {
+        return proxy(DataSource.class, (dataSource, dataSourceMethod, dataSourceArgs) -> proxy(Connection.class, (connection, method, args) -> {
+            switch (method.getName()) {
+                case "setSavepoint":
+                    String name = String.valueOf(calls.stream().filter(call -> call.startsWith("SAVEPOINT")).count() + 1);
+                    calls.add("SAVEPOINT " + name);
+                    return proxy(Savepoint.class, (savepoint, savepointMethod, savepointArgs) -> name);
+                case "releaseSavepoint":
+                    calls.add("RELEASE " + ((Savepoint) args[0]).getSavepointName());
+                    return null;
+                case "rollback":
+                    calls.add(args == null ? "ROLLBACK" : "ROLLBACK TO " + ((Savepoint) args[0]).getSavepointName());
+                    return null;
+                case "close":
+                    calls.add("CLOSE");
+                    return null;
+                case "isClosed":
+                    return false;
+                case "createStatement":
+                    return proxy(Statement.class, (statement, statementMethod, statementArgs) -> {
+                        if ("execute".equals(statementMethod.getName())) {
+                            calls.add((String) statementArgs[0]);
+                            return false;
+                        }
+                        return null;
+                    });
+                default:
+                    return null;
+            }
+        }));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(RollbackDataSourceTest.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import com.tyro.oss.dbevolution.DatabaseDetails;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.tyro.oss.dbevolution.DatabaseDetails.withDatabaseDetails;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SchemaPoolTest {
+
+    private final DatabaseDetails databaseDetails = withDatabaseDetails("app", "app", "jdbc:mysql://localhost:3306/app");
+
+    @Test
+    void shouldFailEveryWaitingLeaseOnceTheTemplateCannotBeCreated() throws Exception {
+        CountDownLatch templateStarted = new CountDownLatch(1);
+        CountDownLatch failTemplate = new CountDownLatch(1);
+        SchemaPool schemaPool = new SchemaPool(databaseDetails, null, (details, migrationScriptsFilename) -> {
+            templateStarted.countDown();
+            failTemplate.await();
+            throw new IllegalStateException("migration failed");
+        }, "changelog.xml", 2, RestoreOptions.defaultRestoreOptions());
+
+        templateStarted.await();
+        failTemplate.countDown();
+
+        CommandExecutionException first = assertThrows(CommandExecutionException.class, schemaPool::lease);
+        CommandExecutionException second = assertThrows(CommandExecutionException.class, schemaPool::lease);
+        assertEquals("migration failed", first.getCause().getMessage());
+        assertEquals("migration failed", second.getCause().getMessage());
+        schemaPool.close();
+    }
+
+    @Test
+    void shouldGiveUpLeasingAfterTheTimeout() throws Exception {
+        CountDownLatch finishTemplate = new CountDownLatch(1);
+        SchemaPool schemaPool = new SchemaPool(databaseDetails, null, (details, migrationScriptsFilename) -> finishTemplate.await(),
+                "changelog.xml", 1, RestoreOptions.defaultRestoreOptions());
+
+        long start = System.nanoTime();
+        assertThrows(CommandExecutionException.class, () -> schemaPool.lease(50, TimeUnit.MILLISECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50);
+        finishTemplate.countDown();
+        schemaPool.close();
+    }
+
+    @Test
+    void shouldRefuseConnectionsWhileNoSchemaIsLeased() {
+        SchemaPool schemaPool = new SchemaPool(databaseDetails, null, (details, migrationScriptsFilename) -> {
+        }, "changelog.xml", 1, RestoreOptions.defaultRestoreOptions());
+        schemaPool.close();
+
+        assertThrows(SQLException.class, () -> schemaPool.getDataSource().getConnection());
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class SchemaRenamingInputStreamTest {
+
+    private static final String SCRIPT = "CREATE TABLE `customer` (`id` int);\n"
+            + "CREATE VIEW `active` AS select `app_fork1`.`customer`.`id` AS `id` from `app_fork1`.`customer`;\n"
+            + "INSERT INTO `customer` VALUES (1);\n";
+
+    @Test
+    void shouldRenameSchemaQualifiedIdentifiers() throws Exception {
+        String renamed = readAll(SchemaRenamingInputStream.renameSchema(new ByteArrayInputStream(SCRIPT.getBytes(UTF_8)), "app_fork1", "app_fork2"));
+
+        assertEquals(SCRIPT.replace("`app_fork1`.", "`app_fork2`."), renamed);
+    }
+
+    @Test
+    void shouldRenameIdentifiersSplitAcrossReads() throws Exception {
+        InputStream oneByteAtATime = new ByteArrayInputStream(SCRIPT.getBytes(UTF_8)) {
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int length) {
+                return super.read(buffer, offset, Math.min(length, 1));
+            }
+        };
+
+        String renamed = readAll(SchemaRenamingInputStream.renameSchema(oneByteAtATime, "app_fork1", "app"));
+
+        assertEquals(SCRIPT.replace("`app_fork1`.", "`app`."), renamed);
+    }
+
+    @Test
+    void shouldLeaveTheScriptAloneWhenTheSchemaIsUnchanged() {
+        InputStream script = new ByteArrayInputStream(SCRIPT.getBytes(UTF_8));
+
+        assertSame(script, SchemaRenamingInputStream.renameSchema(script, "app_fork1", "app_fork1"));
+        assertSame(script, SchemaRenamingInputStream.renameSchema(script, null, "app_fork1"));
+    }
+
+    @Test
+    void shouldPointPipedViewsAtEachTargetSchema() throws Exception {
+        String view = "CREATE VIEW `active` AS select `app`.`customer`.`id` AS `id` from `app`.`customer`;\n";
+        Map<String, String> restored = new ConcurrentHashMap<>();
+        SnapshotPipeline pipeline = new SnapshotPipeline();
+        for (String target : asList("app_1", "app_2")) {
+            pipeline.to(SchemaRenamingInputStream.renamingSchema("app", target, snapshot -> restored.put(target, readAll(snapshot))));
+        }
+
+        pipeline.run(snapshot -> snapshot.write(view.getBytes(UTF_8)));
+
+        assertEquals(view.replace("`app`.", "`app_1`."), restored.get("app_1"));
+        assertEquals(view.replace("`app`.", "`app_2`."), restored.get("app_2"));
+    }
+
+    private static String readAll(InputStream script) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[7];
+        int read;
+        while ((read = script.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), UTF_8);
+    }
+}
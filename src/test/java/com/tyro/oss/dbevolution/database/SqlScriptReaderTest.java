@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SqlScriptReaderTest {
+
+    @Test
+    void shouldSplitStatementsOnDelimiter() throws IOException {
+        assertEquals(asList("CREATE TABLE a (id int)", "INSERT INTO a VALUES (1),(2)", "DROP TABLE b"),
+                statementsIn("CREATE TABLE a (id int);\nINSERT INTO a VALUES (1),(2); DROP TABLE b"));
+    }
+
+    @Test
+    void shouldIgnoreDelimitersInsideQuotedStringsAndIdentifiers() throws IOException {
+        assertEquals(asList("INSERT INTO `a;b` VALUES ('x;y', \"it\\'s;\", 'don''t;')"),
+                statementsIn("INSERT INTO `a;b` VALUES ('x;y', \"it\\'s;\", 'don''t;');"));
+    }
+
+    @Test
+    void shouldKeepNewLinesInsideQuotedStrings() throws IOException {
+        assertEquals(asList("INSERT INTO a VALUES ('line 1\n-- not a comment\nline 3')"),
+                statementsIn("INSERT INTO a VALUES ('line 1\n-- not a comment\nline 3');"));
+    }
+
+    @Test
+    void shouldStripCommentsButKeepExecutableComments() throws IOException {
+        assertEquals(asList("/*!40101 SET NAMES utf8mb4 */", "SELECT 1", "SELECT  2"),
+                statementsIn("-- MySQL dump\n# another comment\n/* plain; comment */\n/*!40101 SET NAMES utf8mb4 */;\nSELECT 1; -- trailing\nSELECT /* inline */2;"));
+    }
+
+    @Test
+    void shouldHonourDelimiterCommandForTriggersAndRoutines() throws IOException {
+        String script = "DELIMITER ;;\n" +
+                "CREATE TRIGGER t BEFORE INSERT ON a FOR EACH ROW BEGIN\n" +
+                "  SET NEW.x = 1;\n" +
+                "END ;;\n" +
+                "DELIMITER ;\n" +
+                "INSERT INTO a VALUES (1);";
+
+        assertEquals(asList("CREATE TRIGGER t BEFORE INSERT ON a FOR EACH ROW BEGIN\n  SET NEW.x = 1;\nEND", "INSERT INTO a VALUES (1)"),
+                statementsIn(script));
+    }
+
+    @Test
+    void shouldReturnUnterminatedFinalStatement() throws IOException {
+        assertEquals(asList("FLUSH PRIVILEGES"), statementsIn("FLUSH PRIVILEGES\n\n"));
+    }
+
+    private static List<String> statementsIn(String script) throws IOException {
+        List<String> statements = new ArrayList<>();
+        try (SqlScriptReader reader = new SqlScriptReader(new StringReader(script))) {
+            for (String statement = reader.nextStatement(); statement != null; statement = reader.nextStatement()) {
+                statements.add(statement);
+            }
+        }
+        return statements;
+    }
+}
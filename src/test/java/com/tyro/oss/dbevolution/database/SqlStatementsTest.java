@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SqlStatementsTest {
+
+    @Test
+    void shouldDetectStatementsThatEndTheCurrentTransaction() {
+        assertTrue(SqlStatements.endsTransaction("ALTER TABLE customer ADD COLUMN age INT"));
+        assertTrue(SqlStatements.endsTransaction("/* audit */ TRUNCATE TABLE customer"));
+        assertTrue(SqlStatements.endsTransaction("create index idx_name on customer (name)"));
+        assertTrue(SqlStatements.endsTransaction("COMMIT"));
+        assertTrue(SqlStatements.endsTransaction("ROLLBACK"));
+        assertTrue(SqlStatements.endsTransaction("SET autocommit = 1"));
+        assertTrue(SqlStatements.endsTransaction("SET @@session.autocommit=ON"));
+
+        assertFalse(SqlStatements.endsTransaction("INSERT INTO customer (name) VALUES ('create')"));
+        assertFalse(SqlStatements.endsTransaction("CREATE TEMPORARY TABLE scratch (id INT)"));
+        assertFalse(SqlStatements.endsTransaction("ROLLBACK TO SAVEPOINT before_update"));
+        assertFalse(SqlStatements.endsTransaction("ROLLBACK WORK TO before_update"));
+        assertFalse(SqlStatements.endsTransaction("SET @name = 'x'"));
+        assertFalse(SqlStatements.endsTransaction("SET autocommit = 0"));
+        assertFalse(SqlStatements.endsTransaction("SET SESSION autocommit = OFF"));
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2019 Tyro Payments Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tyro.oss.dbevolution.database;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class TablespaceTransporterTest {
+
+    @Test
+    void shouldEncodeIdentifiersTheWayInnoDbNamesTablespaceFiles() {
+        assertEquals("customer_account", TablespaceTransporter.tablespaceFileName("customer_account"));
+        assertEquals("test@002dschema", TablespaceTransporter.tablespaceFileName("test-schema"));
+        assertEquals("order@0020items@0024", TablespaceTransporter.tablespaceFileName("order items$"));
+        assertNull(TablespaceTransporter.tablespaceFileName("caf\u00e9"));
+    }
+}